@@ -0,0 +1,42 @@
+package org.paquitosoft.lml.model.action;
+
+import java.sql.Connection;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This class walks the interceptor chain of an action execution.
+ * 
+ * @author paquitosoft
+ */
+class ActionInvocation implements IActionInvocation {
+
+    private final IActionInterceptor[] interceptors;
+    
+    private final IAction action;
+    
+    private final Connection connection;
+    
+    private int next;
+    
+    ActionInvocation(IActionInterceptor[] interceptors, IAction action, Connection connection) {
+        this.interceptors = interceptors;
+        this.action = action;
+        this.connection = connection;
+    }
+
+    public IAction getAction() {
+        return action;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public Object proceed() throws InternalErrorException {
+        if (next < interceptors.length) {
+            return interceptors[next++].intercept(this);
+        }
+        return action.execute(connection);
+    }
+    
+}
@@ -2,12 +2,19 @@ package org.paquitosoft.lml.model.action;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.naming.Context;
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-import javax.sql.DataSource;
-import org.paquitosoft.lml.model.action.connection.ConnectionPool;
+import org.paquitosoft.lml.model.action.connection.ConnectionProviderFactory;
+import org.paquitosoft.lml.model.action.connection.IConnectionProvider;
+import org.paquitosoft.lml.model.action.connection.Priority;
+import org.paquitosoft.lml.model.exception.BulkheadRejectedException;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 import static org.paquitosoft.lml.util.LMLConstants.*;
 import org.paquitosoft.lml.util.LMLGlobalOperations;
@@ -16,6 +23,42 @@ import org.paquitosoft.lml.util.LMLGlobalOperations;
  *  This class is responsible for executing every action. 
  *  It has to get a database connection, manage a transaction if 
  *  it's needed and execute the action.
+ *  <br/>
+ *  Actions working on a known entity (<code>IRoutableAction</code>) are sent to the 
+ *  connection provider the routing strategy chooses for it (see <code>DefaultRoutingStrategy</code>); 
+ *  the rest go to the default one.
+ *  When read replicas are configured for that provider (<b>lml.connection.settings.replicas</b> or 
+ *  <b>lml.connection.settings.&lt;name&gt;.replicas</b>), non transactional actions are spread 
+ *  among them (round robin) and everything else goes to the primary provider.
+ *  <br/>
+ *  Actions processed while another one is being executed by the same thread (from a custom 
+ *  action or from user code called by it) join its connection and transaction by default, 
+ *  so they neither borrow a second connection nor commit on their own (see <code>Propagation</code>).
+ *  When a joined action fails, the outer transaction is rolled back even if the 
+ *  failure is caught.
+ *  <br/>
+ *  Actions can ask for connection settings (isolation level, read only, fetch direction) 
+ *  implementing <code>IHintedAction</code>; only the settings they ask for are changed, and 
+ *  the connection is restored once the action has finished.
+ *  <br/>
+ *  Actions that fail because of a transient database error (see <code>RetryPolicy</code>) are 
+ *  rolled back and executed again, with a new connection, when they are <code>IRetryableAction</code>s.
+ *  <br/>
+ *  Every action execution goes through the global interceptor chain (see <code>IActionInterceptor</code>), 
+ *  set up with <code>addInterceptor</code> or <b>lml.connection.settings.interceptors</b> (comma separated 
+ *  class names). Without interceptors, actions are executed directly.
+ *  <br/>
+ *  Actions can be given a timeout (by default <b>lml.connection.settings.action.timeout</b> milliseconds, 
+ *  0 means none). It covers waiting for the connection, the retries and every statement executed 
+ *  by the action and the actions nested in it: each statement gets the remaining time as its query 
+ *  timeout and no statement can be created once the deadline has passed.
+ *  <br/>
+ *  Before getting a connection, outermost actions are admitted through the bulkhead of their lane 
+ *  (see <code>Bulkhead</code>), which limits how many actions of that lane run at the same time.
+ *  <br/>
+ *  Actions get their connections with a <code>Priority</code> (<code>NORMAL</code> by default), so 
+ *  online requests can be served before batch work when connections are scarce. Nested actions 
+ *  that need a connection of their own get it with the priority of the outer one.
  * 
  * @author paquitosoft
  */
@@ -24,116 +67,712 @@ public class ActionProcessor {
     Logger logger = Logger.getLogger(ActionProcessor.class.getName());
     
     private IAction action;
+    
+    private Propagation propagation;
+    
+    private long timeout;
+    
+    private Priority priority;
 
-    private static String dataSourceJndiName = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTING_DATASOURCE_JNDI);
-    private static DataSource dataSource;
-    private static ConnectionPool connectionPool;
+    private static volatile IRoutingStrategy routingStrategy;
+    private static volatile RetryPolicy retryPolicy;
+    private static volatile IActionInterceptor[] interceptors;
+    private static volatile Long defaultTimeout;
+    private static final ActionProcessorMetrics metrics = new ActionProcessorMetrics();
+    private static ConcurrentHashMap<String,String[]> replicaNames = new ConcurrentHashMap<String,String[]>();
+    private static ConcurrentHashMap<Class,String> lanes = new ConcurrentHashMap<Class,String>();
+    private static ConcurrentHashMap<String,Bulkhead> bulkheads = new ConcurrentHashMap<String,Bulkhead>();
+    // Marks the lanes without limit (the map cannot hold nulls)
+    private static final Bulkhead UNLIMITED = new Bulkhead("", 0, 0);
+    private static AtomicInteger replicaCounter = new AtomicInteger(0);
+    
+    private String providerName;
+    private IConnectionProvider primaryProvider;
+    private IConnectionProvider connectionProvider;
+    private String connectionProviderName;
     
     public ActionProcessor(IAction action) throws InternalErrorException {
+        this(action, Propagation.REQUIRED);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param action
+     * @param propagation what to do when another action is being executed by this thread
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public ActionProcessor(IAction action, Propagation propagation) throws InternalErrorException {
+        this(action, propagation, getDefaultTimeout());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param action
+     * @param propagation what to do when another action is being executed by this thread
+     * @param timeout milliseconds the action (and the actions nested in it) may take (0 means no limit)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public ActionProcessor(IAction action, Propagation propagation, long timeout) throws InternalErrorException {
+        this(action, propagation, timeout, null);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param action
+     * @param propagation what to do when another action is being executed by this thread
+     * @param timeout milliseconds the action (and the actions nested in it) may take (0 means no limit)
+     * @param priority priority to get connections with (<b>null</b> to take the one of the outer action, 
+     *          or <code>NORMAL</code> when there is none)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public ActionProcessor(IAction action, Propagation propagation, long timeout, Priority priority) 
+            throws InternalErrorException {
         this.action = action;
-        if (dataSourceJndiName.length() > 0 && dataSource == null) {
-            try {                
-                Context ctx = new InitialContext();
-                dataSource = (DataSource) ctx.lookup(dataSourceJndiName);                
-            } catch (NamingException ex) {
-                throw new InternalErrorException("ActionProcess::constructor -> Naming error while getting dataSource.", ex);
-            } 
-        } else if (dataSource == null) {
-            connectionPool = ConnectionPool.getInstance();
+        this.propagation = propagation;
+        this.timeout = timeout;
+        this.priority = priority;
+        this.providerName = DEFAULT_CONNECTION_PROVIDER;
+        if (action instanceof IRoutableAction) {
+            String routedName = getRoutingStrategy().getProviderName((IRoutableAction) action);
+            if (routedName != null) {
+                this.providerName = routedName;
+            }
         }
+        this.primaryProvider = ConnectionProviderFactory.getConnectionProvider(providerName);
+    }
+    
+    /**
+     * Constructor for actions joining the one being executed by this thread (they are not routed).
+     * 
+     * @param action
+     * @param context context of the outer action
+     */
+    private ActionProcessor(IAction action, ExecutionContext context) {
+        this.action = action;
+        this.propagation = Propagation.REQUIRED;
+        this.priority = context.getPriority();
+        this.primaryProvider = context.getPrimaryProvider();
+        this.connectionProvider = context.getConnectionProvider();
+        this.connectionProviderName = context.getProviderName();
+    }
+    
+    /**
+     * This method returns the strategy used to route actions. It is the one set with 
+     * <code>setRoutingStrategy</code>, the class named by <b>lml.connection.settings.routing.strategy</b> 
+     * or <code>DefaultRoutingStrategy</code>.
+     * 
+     * @return routing strategy
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static IRoutingStrategy getRoutingStrategy() throws InternalErrorException {
+        
+        IRoutingStrategy result = routingStrategy;
+        
+        if (result == null) {
+            String className = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_ROUTING_STRATEGY, "");
+            if (className.length() > 0) {
+                try {
+                    result = (IRoutingStrategy) Class.forName(className).newInstance();
+                } catch (Exception ex) {
+                    throw new InternalErrorException("ActionProcessor::getRoutingStrategy -> Could not create routing strategy: " + className, ex);
+                }
+            } else {
+                result = new DefaultRoutingStrategy();
+            }
+            routingStrategy = result;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method sets the strategy used to route actions to connection providers.
+     * 
+     * @param strategy
+     */
+    public static void setRoutingStrategy(IRoutingStrategy strategy) {
+        routingStrategy = strategy;
+    }
+    
+    /**
+     * This method returns the policy used to retry actions after transient failures. 
+     * Unless one has been set with <code>setRetryPolicy</code>, it is read from the connection settings file.
+     * 
+     * @return retry policy
+     */
+    public static RetryPolicy getRetryPolicy() {
+        
+        RetryPolicy result = retryPolicy;
+        
+        if (result == null) {
+            result = new RetryPolicy();
+            retryPolicy = result;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method sets the policy used to retry actions after transient failures.
+     * 
+     * @param policy
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        retryPolicy = policy;
+    }
+    
+    /**
+     * This method returns the interceptors every action execution goes through. Unless they have 
+     * been changed with <code>addInterceptor</code> or <code>removeInterceptor</code>, they are 
+     * the classes named by <b>lml.connection.settings.interceptors</b>.
+     * 
+     * @return interceptors (in the order they are called)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static List<IActionInterceptor> getInterceptors() throws InternalErrorException {
+        return Collections.unmodifiableList(Arrays.asList(getInterceptorChain()));
+    }
+    
+    /**
+     * This method adds an interceptor at the end of the global chain.
+     * 
+     * @param interceptor
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static synchronized void addInterceptor(IActionInterceptor interceptor) throws InternalErrorException {
+        List<IActionInterceptor> chain = new ArrayList<IActionInterceptor>(Arrays.asList(getInterceptorChain()));
+        chain.add(interceptor);
+        interceptors = chain.toArray(new IActionInterceptor[chain.size()]);
+    }
+    
+    /**
+     * This method removes an interceptor from the global chain.
+     * 
+     * @param interceptor
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static synchronized void removeInterceptor(IActionInterceptor interceptor) throws InternalErrorException {
+        List<IActionInterceptor> chain = new ArrayList<IActionInterceptor>(Arrays.asList(getInterceptorChain()));
+        chain.remove(interceptor);
+        interceptors = chain.toArray(new IActionInterceptor[chain.size()]);
+    }
+    
+    /**
+     * This method returns the interceptor chain, creating the configured interceptors the first time.
+     * 
+     * @return interceptor chain (never modified once published)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private static IActionInterceptor[] getInterceptorChain() throws InternalErrorException {
+        
+        IActionInterceptor[] result = interceptors;
+        
+        if (result == null) {
+            String[] classNames = LMLGlobalOperations.getConnectionSettingNames(CONNECTION_SETTINGS_INTERCEPTORS);
+            result = new IActionInterceptor[classNames.length];
+            for (int i = 0; i < classNames.length; i++) {
+                try {
+                    result[i] = (IActionInterceptor) Class.forName(classNames[i]).newInstance();
+                } catch (Exception ex) {
+                    throw new InternalErrorException("ActionProcessor::getInterceptors -> Could not create interceptor: " + 
+                            classNames[i], ex);
+                }
+            }
+            synchronized (ActionProcessor.class) {
+                if (interceptors == null) {
+                    interceptors = result;
+                }
+                result = interceptors;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method returns the timeout of the actions processed without an explicit one.
+     * 
+     * @return timeout in milliseconds (0 means no limit)
+     */
+    public static long getDefaultTimeout() {
+        
+        Long result = defaultTimeout;
+        
+        if (result == null) {
+            result = Long.valueOf(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_ACTION_TIMEOUT, "0"));
+            defaultTimeout = result;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method returns the bulkhead of a lane.
+     * 
+     * @param lane
+     * @return bulkhead (<b>null</b> when the lane is not limited)
+     */
+    public static Bulkhead getBulkhead(String lane) {
+        
+        Bulkhead result = bulkheads.get(lane);
+        
+        if (result == null) {
+            result = Bulkhead.fromSettings(lane);
+            if (result == null) {
+                result = UNLIMITED;
+            }
+            Bulkhead previous = bulkheads.putIfAbsent(lane, result);
+            if (previous != null) {
+                result = previous;
+            }
+        }
+        
+        return (result == UNLIMITED) ? null : result;
+    }
+    
+    /**
+     * This method sets (or replaces) the bulkhead of a lane. Actions already admitted 
+     * through the previous one are not affected.
+     * 
+     * @param bulkhead
+     */
+    public static void setBulkhead(Bulkhead bulkhead) {
+        bulkheads.put(bulkhead.getName(), bulkhead);
+    }
+    
+    /**
+     * This method gets the lane the action belongs to.
+     * 
+     * @return lane name
+     */
+    private String getLane() {
+        
+        if (action instanceof ILanedAction) {
+            String result = ((ILanedAction) action).getLane();
+            if (result != null) {
+                return result;
+            }
+        }
+        
+        Class actionType = action.getClass();
+        String result = lanes.get(actionType);
+        
+        if (result == null) {
+            result = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_BULKHEAD_LANE_PREFIX + actionType.getName(), 
+                    actionType.getName());
+            lanes.put(actionType, result);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method returns the action processing metrics.
+     * 
+     * @return metrics
+     */
+    public static ActionProcessorMetrics getMetrics() {
+        return metrics;
     }
     
     /**
      * This method is used to execute the action.
+     * Transactional actions are committed once they have been executed and rolled 
+     * back when they fail, unless they join the transaction of an outer action.
      * 
      * @return the result of executing the action
      * @throws org.paquitosoft.lml.model.exception.InternalErrorException
      */
     public <T> T processAction() throws InternalErrorException {
         
-        T result = null;
-        Connection conn = null;
-    
+        ExecutionContext context = ExecutionContext.current();
+        boolean transactional = action instanceof ITransactionalAction && propagation != Propagation.SUPPORTS;
+        
+        // Nested actions cannot outlive the deadline of the outer one
+        long deadline = (timeout > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        if (context != null && context.getDeadline() != 0 && (deadline == 0 || context.getDeadline() - deadline < 0)) {
+            deadline = context.getDeadline();
+        }
+        if (priority == null) {
+            priority = (context != null) ? context.getPriority() : Priority.NORMAL;
+        }
+        
+        if (context != null && propagation != Propagation.REQUIRES_NEW &&
+                context.canJoin(primaryProvider, !(action instanceof INonTransactionalAction))) {
+            if (context.isTransactional() || !transactional) {
+                return (T) joinAction(context);
+            }
+            // The outer action runs without a transaction: this one starts its own on the same connection
+            return (T) executeAction(context.getConnection(), context.getPrimaryProvider(), 
+                    context.getConnectionProvider(), context.getProviderName(), true, deadline);
+        }
+        
+        // Nested actions are not admitted again: waiting for their own lane could deadlock the outer one
+        Bulkhead bulkhead = (context == null) ? getBulkhead(getLane()) : null;
+        if (bulkhead != null) {
+            try {
+                bulkhead.acquire(deadline);
+            } catch (BulkheadRejectedException e) {
+                metrics.getBulkheadRejectionsCounter().incrementAndGet();
+                throw e;
+            }
+        }
+        
         try {
+            return (T) executeWithRetries(deadline, transactional);
+        } finally {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+        }
+    }
+    
+    /**
+     * This method executes the action with a connection of its own, retrying it 
+     * after transient failures when it is retryable.
+     * 
+     * @param deadline (<code>System.nanoTime()</code> based, 0 means none)
+     * @param transactional whether to execute the action in a transaction
+     * @return the result of executing the action
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private Object executeWithRetries(long deadline, boolean transactional) throws InternalErrorException {
+        
+        RetryPolicy policy = (action instanceof IRetryableAction && ((IRetryableAction) action).isRetryable()) ? 
+                getRetryPolicy() : null;
+        // Transient failure that made us retry (the cause when there is no time left for another attempt)
+        InternalErrorException failure = null;
+        
+        for (int attempt = 1; ; attempt++) {
             
             // Get a connection
-            conn = getConnection();
+            Connection conn = getConnection(deadline);
+            
+            try {
+                Object result = executeAction(conn, primaryProvider, connectionProvider, connectionProviderName, 
+                        transactional, deadline);
+                if (attempt > 1) {
+                    metrics.getRetriedActionsSucceededCounter().incrementAndGet();
+                }
+                return result;
+            } catch (InternalErrorException e) {
+                if (policy == null || !policy.isTransient(e)) {
+                    throw e;
+                }
+                if (attempt >= policy.getMaxAttempts()) {
+                    metrics.getRetriesExhaustedCounter().incrementAndGet();
+                    throw e;
+                }
+                logger.log(Level.FINE, "ActionProcessor::processAction -> Transient failure (attempt " + attempt + 
+                        "). Retrying " + action.getClass().getName(), e);
+                failure = e;
+            } finally {
+                // Release connection (always, otherwise the pool would lose it)
+                releaseConnection(conn);
+            }
+            
+            // Wait (without holding the connection) before trying again
+            long backoff = policy.getBackoff(attempt);
+            if (deadline != 0 && deadline - System.nanoTime() < TimeUnit.MILLISECONDS.toNanos(backoff)) {
+                metrics.getRetriesExhaustedCounter().incrementAndGet();
+                throw new InternalErrorException("ActionProcessor::processAction -> The action timed out before it could be retried.", 
+                        failure);
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InternalErrorException("ActionProcessor::processAction -> Interrupted while waiting to retry.", ex);
+            }
+            metrics.getRetriesCounter().incrementAndGet();
+        }
+    }
+    
+    /**
+     * This method executes the action with a connection, committing its transaction when needed.
+     * The connection is configured with the action hints and restored afterwards.
+     * 
+     * @param conn connection
+     * @param primary provider the action was routed to
+     * @param provider provider the connection was taken from
+     * @param name name of the provider the connection was taken from
+     * @param transactional whether to execute the action in a transaction
+     * @param deadline (<code>System.nanoTime()</code> based, 0 means none)
+     * @return the result of executing the action
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private Object executeAction(Connection conn, IConnectionProvider primary, IConnectionProvider provider, 
+            String name, boolean transactional, long deadline) throws InternalErrorException {
+        
+        Object result = null;
+        IHintedAction hints = (action instanceof IHintedAction) ? (IHintedAction) action : null;
+        Integer isolation = (hints == null) ? null : hints.getIsolationLevel();
+        Boolean readOnly = (hints == null) ? null : hints.getReadOnly();
+        Integer fetchDirection = (hints == null) ? null : hints.getFetchDirection();
+        Boolean previousReadOnly = null;
+        Integer previousIsolation = null;
+        // Only a started transaction is rolled back (a failed hint leaves the connection in auto commit)
+        boolean inTransaction = false;
+        
+        if (deadline != 0 && deadline - System.nanoTime() <= 0) {
+            throw new InternalErrorException("ActionProcessor::processAction -> The action timed out before being executed.");
+        }
+        
+        Connection actionConn = (fetchDirection == null && deadline == 0) ? conn : 
+            StatementHints.apply(conn, fetchDirection, deadline);
+        ExecutionContext context = ExecutionContext.begin(actionConn, primary, provider, name, transactional, deadline, 
+                priority);
+        
+        try {
+            
+            // Apply hints (before the transaction starts, as some drivers do not allow it later)
+            if (readOnly != null && readOnly != conn.isReadOnly()) {
+                previousReadOnly = !readOnly;
+                conn.setReadOnly(readOnly);
+            }
+            if (isolation != null && isolation != conn.getTransactionIsolation()) {
+                previousIsolation = conn.getTransactionIsolation();
+                conn.setTransactionIsolation(isolation);
+            }
             
             // Set transaction mode if needed
-            if (action instanceof ITransactionalAction) {
+            if (transactional) {
                 conn.setAutoCommit(false);
+                inTransaction = true;
             }
             
             // Execute action
-            result = (T) action.execute(conn);
+            result = intercept(actionConn);
             
             // Commit action when needed
-            if (action instanceof ITransactionalAction) {
+            if (transactional) {
+                if (context.isRollbackOnly()) {
+                    throw new InternalErrorException("ActionProcessor::processAction -> A nested action failed, " +
+                            "so the transaction has been rolled back.");
+                }
                 conn.commit();
             }
             
         } catch (SQLException e) {
             
             // Rollback when needed
-            if (action instanceof ITransactionalAction) {
-                try {
-                    conn.rollback();
-                } catch (SQLException ex) {
-                    throw new InternalErrorException("ActionProcessor::processAction -> Error while rolling back.", ex);
-                }
-            }            
+            rollback(conn, inTransaction);
             throw new InternalErrorException("ActionProcessor::processAction -> Error while processing action.", e);
             
         } catch (InternalErrorException e) {
             
             // Rollback when needed
-            if (action instanceof ITransactionalAction) {
-                try {
-                    conn.rollback();
-                } catch (SQLException ex) {
-                    throw new InternalErrorException("ActionProcessor::processAction -> Error while rolling back.", ex);
-                }
-            }            
+            rollback(conn, inTransaction);
             throw e;
             
-        } finally {
+        } catch (RuntimeException e) {
             
-            // Commit when needed
-            if (action instanceof ITransactionalAction) {
-                try {
-                    conn.commit();
-                } catch (SQLException ex) {
-                    throw new InternalErrorException("ActionProcessor::processAction -> Error while commiting.", ex);
-                }
-            }
+            // Rollback when needed
+            rollback(conn, inTransaction);
+            throw e;
             
-            // Release connection
-            if (conn != null) releaseConnection(conn);
+        } finally {
+            
+            context.end();
+            restoreConnection(conn, transactional, previousReadOnly, previousIsolation);
             
         }
         
         return result;
     }
     
+    /**
+     * This method executes an action as part of the one being executed by this thread 
+     * (see <code>UnitOfWorkAction</code>): it joins its connection and transaction, going 
+     * through the interceptor chain as any other action. Routable actions must be routed to 
+     * the connection provider of the outer action (or, for reads, to its primary provider); 
+     * otherwise they are rejected instead of being executed on the wrong database.
+     * Without an outer action, it is processed as usual.
+     * 
+     * @param action
+     * @return the result of executing the action
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    static Object processJoined(IAction action) throws InternalErrorException {
+        
+        ExecutionContext context = ExecutionContext.current();
+        
+        if (context == null) {
+            return new ActionProcessor(action).processAction();
+        }
+        
+        if (action instanceof IRoutableAction) {
+            String routedName = getRoutingStrategy().getProviderName((IRoutableAction) action);
+            if (routedName == null) {
+                routedName = DEFAULT_CONNECTION_PROVIDER;
+            }
+            if (!context.canJoin(ConnectionProviderFactory.getConnectionProvider(routedName), 
+                    !(action instanceof INonTransactionalAction))) {
+                throw new InternalErrorException("ActionProcessor::processJoined -> " + action.getClass().getName() + 
+                        " is routed to the connection provider " + routedName + ", which is not the one of the outer action.");
+            }
+        }
+        
+        return new ActionProcessor(action, context).joinAction(context);
+    }
+    
+    /**
+     * This method executes the action with the connection of the outer action.
+     * Failures mark the outer transaction so it is not committed.
+     * <br/>
+     * The fetch direction hint is applied to the statements of the action; isolation level 
+     * and read only hints cannot be changed in the middle of the outer transaction.
+     * 
+     * @param context context of the outer action
+     * @return the result of executing the action
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private Object joinAction(ExecutionContext context) throws InternalErrorException {
+        
+        Integer fetchDirection = (action instanceof IHintedAction) ? ((IHintedAction) action).getFetchDirection() : null;
+        Connection conn = (fetchDirection == null) ? context.getConnection() : 
+            StatementHints.apply(context.getConnection(), fetchDirection, context.getDeadline());
+        
+        try {
+            return intercept(conn);
+        } catch (InternalErrorException e) {
+            context.setRollbackOnly();
+            throw e;
+        } catch (RuntimeException e) {
+            context.setRollbackOnly();
+            throw e;
+        }
+    }
+    
+    /**
+     * This method executes the action through the interceptor chain.
+     * 
+     * @param conn
+     * @return the result of executing the action (or the one returned by an interceptor)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private Object intercept(Connection conn) throws InternalErrorException {
+        
+        IActionInterceptor[] chain = getInterceptorChain();
+        
+        if (chain.length == 0) {
+            return action.execute(conn);
+        }
+        
+        return new ActionInvocation(chain, action, conn).proceed();
+    }
+    
+    /**
+     * This method rolls back the transaction of a failed transactional action.
+     * 
+     * @param conn connection the action was executed with
+     * @param transactional whether the action was executed in a transaction
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private void rollback(Connection conn, boolean transactional) throws InternalErrorException {
+        if (transactional) {
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                throw new InternalErrorException("ActionProcessor::processAction -> Error while rolling back.", ex);
+            }
+        }
+    }
+    
+    /**
+     * This method leaves the connection as it was before executing the action: 
+     * in auto commit mode and with its previous read only flag and isolation level.
+     * 
+     * @param conn
+     * @param transactional whether the action was executed in a transaction
+     * @param previousReadOnly read only flag to restore (<b>null</b> when it was not changed)
+     * @param previousIsolation isolation level to restore (<b>null</b> when it was not changed)
+     */
+    private void restoreConnection(Connection conn, boolean transactional, Boolean previousReadOnly, 
+            Integer previousIsolation) {
+        try {
+            if (transactional) {
+                conn.setAutoCommit(true);
+            }
+            if (previousReadOnly != null) {
+                conn.setReadOnly(previousReadOnly);
+            }
+            if (previousIsolation != null) {
+                conn.setTransactionIsolation(previousIsolation);
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.WARNING, "ActionProcessor::processAction -> Could not restore the connection settings.", ex);
+        }
+    }
+    
     /**
      * Gets a database connection.
+     * Non transactional actions get it from a read replica when there is any 
+     * (falling back to the primary provider when the replica fails).
      * 
      * @return connection
      * @throws org.paquitosoft.lml.model.exception.InternalErrorException
      */
     protected Connection getConnection() throws InternalErrorException {
+        return getConnection(0);
+    }
+    
+    /**
+     * Gets a database connection, waiting for it no longer than the deadline of the action.
+     * 
+     * @param deadline (<code>System.nanoTime()</code> based, 0 means none)
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    protected Connection getConnection(long deadline) throws InternalErrorException {
+        
+        if (deadline != 0 && deadline - System.nanoTime() <= 0) {
+            throw new InternalErrorException("ActionProcessor::getConnection -> The action timed out before getting a connection.");
+        }
         
         Connection result = null;
+        String borrower = action.getClass().getName();
         
-        // Check wether to get a connection from a server or from the connection pool
-        if (dataSource != null) {
+        // Check wether to read from a replica or from the primary provider
+        String[] replicas = getReplicaNames(providerName);
+        if (action instanceof INonTransactionalAction && replicas.length > 0) {
+            String replicaName = replicas[(replicaCounter.getAndIncrement() & Integer.MAX_VALUE) % replicas.length];
             try {
-                result = dataSource.getConnection();            
-            } catch (SQLException ex) {
-                throw new InternalErrorException("ActionProcess::getConnection -> SQL error while getting dataSource connection", ex);
+                connectionProvider = ConnectionProviderFactory.getConnectionProvider(replicaName);
+                connectionProviderName = replicaName;
+                result = connectionProvider.getConnection(borrower, priority, deadline);
+            } catch (InternalErrorException ex) {
+                logger.log(Level.WARNING, "ActionProcessor::getConnection -> Could not get a connection from replica " + replicaName + 
+                        ". Using the primary one.", ex);
             }
-        } else {
-            result = connectionPool.getConnection();            
+        }
+        
+        if (result == null) {
+            connectionProvider = primaryProvider;
+            connectionProviderName = providerName;
+            result = connectionProvider.getConnection(borrower, priority, deadline);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method gets the read replicas configured for a connection provider.
+     * 
+     * @param name
+     * @return replica provider names
+     */
+    private static String[] getReplicaNames(String name) {
+        
+        String[] result = replicaNames.get(name);
+        
+        if (result == null) {
+            result = LMLGlobalOperations.getConnectionSettingNames(
+                    LMLGlobalOperations.getConnectionSettingKey(name, CONNECTION_SETTINGS_REPLICAS));
+            replicaNames.put(name, result);
         }
         
         return result;
@@ -146,16 +785,8 @@ public class ActionProcessor {
      * @throws org.paquitosoft.lml.model.exception.InternalErrorException
      */
     protected void releaseConnection(Connection connection) throws InternalErrorException {
-        // Check wether to give the connection back to dataSource or the connectionPool
-        if (dataSource != null) {
-            try {
-                connection.close();
-            } catch (SQLException ex) {
-                throw new InternalErrorException("ActionProcess::releaseConnection -> SQL error while closing dataSource connection", ex);
-            }
-        } else {
-            connectionPool.releaseConnection(connection);
-        }        
+        // Give the connection back to the provider it came from
+        connectionProvider.releaseConnection(connection);
     }
     
 }
@@ -0,0 +1,92 @@
+package org.paquitosoft.lml.model.action;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *  This class gathers the metrics of action processing: how many times actions 
+ *  have been retried after transient failures, how those retries ended and how many 
+ *  actions have been rejected by their bulkhead.
+ *  It can be queried directly (<code>ActionProcessor.getMetrics()</code>) or through JMX,
+ *  where it is registered as <i>org.paquitosoft.lml:type=ActionProcessor</i>.
+ *
+ * @author paquitosoft
+ */
+public class ActionProcessorMetrics implements ActionProcessorMetricsMBean {
+
+    private static Logger logger = Logger.getLogger(ActionProcessorMetrics.class.getName());
+
+    private final AtomicLong retries = new AtomicLong(0);
+
+    private final AtomicLong retriedActionsSucceeded = new AtomicLong(0);
+
+    private final AtomicLong retriesExhausted = new AtomicLong(0);
+
+    private final AtomicLong bulkheadRejections = new AtomicLong(0);
+
+    ActionProcessorMetrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("org.paquitosoft.lml:type=ActionProcessor"));
+        } catch (JMException ex) {
+            logger.log(Level.WARNING, "ActionProcessorMetrics -> Could not register action metrics in JMX.", ex);
+        }
+    }
+
+    /**
+     * This method returns how many times an action has been executed again.
+     *
+     * @return retries
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * This method returns how many retried actions finally succeeded.
+     *
+     * @return succeeded retried actions
+     */
+    public long getRetriedActionsSucceeded() {
+        return retriedActionsSucceeded.get();
+    }
+
+    /**
+     * This method returns how many actions kept failing after every allowed attempt.
+     *
+     * @return exhausted retries
+     */
+    public long getRetriesExhausted() {
+        return retriesExhausted.get();
+    }
+
+    /**
+     * This method returns how many actions have been rejected by their bulkhead.
+     *
+     * @return rejected actions
+     */
+    public long getBulkheadRejections() {
+        return bulkheadRejections.get();
+    }
+
+    AtomicLong getRetriesCounter() {
+        return retries;
+    }
+
+    AtomicLong getRetriedActionsSucceededCounter() {
+        return retriedActionsSucceeded;
+    }
+
+    AtomicLong getRetriesExhaustedCounter() {
+        return retriesExhausted;
+    }
+
+    AtomicLong getBulkheadRejectionsCounter() {
+        return bulkheadRejections;
+    }
+
+}
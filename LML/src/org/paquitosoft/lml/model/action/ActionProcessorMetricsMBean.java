@@ -0,0 +1,18 @@
+package org.paquitosoft.lml.model.action;
+
+/**
+ *  This interface exposes the action processing metrics through JMX.
+ *
+ * @author paquitosoft
+ */
+public interface ActionProcessorMetricsMBean {
+
+    long getRetries();
+
+    long getRetriedActionsSucceeded();
+
+    long getRetriesExhausted();
+
+    long getBulkheadRejections();
+
+}
@@ -0,0 +1,164 @@
+package org.paquitosoft.lml.model.action;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.paquitosoft.lml.model.exception.BulkheadRejectedException;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+import org.paquitosoft.lml.util.LMLGlobalOperations;
+
+/**
+ *  This class limits how many actions of a lane can be executed at the same time, so
+ *  a burst of heavy actions cannot take every connection and starve the rest.
+ *  <br/>
+ *  Actions belong to the lane named after their class, to the one configured for their class
+ *  (<i>lml.connection.settings.bulkhead.lane.com.foo.HeavyFinderAction=reports</i>) or to the one
+ *  they choose (<code>ILanedAction</code>). A lane is limited when it is configured:
+ *  <ul>
+ *      <li><i>lml.connection.settings.bulkhead.reports.limit=4</i>: at most 4 actions at the same time.</li>
+ *      <li>
+ *          <i>lml.connection.settings.bulkhead.reports.timeout=200</i>: actions beyond the limit wait
+ *          (in arrival order) up to 200 milliseconds; 0 (the default) rejects them at once.
+ *      </li>
+ *  </ul>
+ *  Rejected actions fail with <code>BulkheadRejectedException</code>.
+ *
+ * @author paquitosoft
+ */
+public class Bulkhead {
+
+    private final String name;
+
+    private final int limit;
+
+    private final long timeout;
+
+    private final Semaphore permits;
+
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    /**
+     * Constructor.
+     *
+     * @param name lane name
+     * @param limit maximum number of actions executed at the same time
+     * @param timeout milliseconds an action waits to be admitted (0 rejects it at once)
+     */
+    public Bulkhead(String name, int limit, long timeout) {
+        this.name = name;
+        this.limit = limit;
+        this.timeout = timeout;
+        this.permits = new Semaphore(limit, true);
+    }
+
+    /**
+     * This method creates the bulkhead of a lane as configured in the connection settings file.
+     *
+     * @param lane
+     * @return bulkhead (<b>null</b> when the lane is not limited)
+     */
+    static Bulkhead fromSettings(String lane) {
+
+        String limit = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_BULKHEAD_PREFIX + lane + BULKHEAD_LIMIT_SUFFIX, "");
+        if (limit.length() == 0) {
+            return null;
+        }
+
+        String timeout = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_BULKHEAD_PREFIX + lane + BULKHEAD_TIMEOUT_SUFFIX, "0");
+        return new Bulkhead(lane, Integer.parseInt(limit), Long.parseLong(timeout));
+    }
+
+    /**
+     * This method admits an action, waiting for room when the lane is full.
+     *
+     * @param deadline deadline of the action (<code>System.nanoTime()</code> based, 0 means none)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException (BulkheadRejectedException) when it is not admitted
+     */
+    void acquire(long deadline) throws InternalErrorException {
+
+        // Timed (and not barging) so actions already waiting keep their turn
+        try {
+            if (permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("Bulkhead::acquire -> Interrupted while waiting for lane " + name + ".", ex);
+        }
+
+        long wait = TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (deadline != 0) {
+            wait = Math.min(wait, deadline - System.nanoTime());
+        }
+
+        boolean admitted = false;
+        if (wait > 0) {
+            waiting.incrementAndGet();
+            try {
+                admitted = permits.tryAcquire(wait, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InternalErrorException("Bulkhead::acquire -> Interrupted while waiting for lane " + name + ".", ex);
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        if (!admitted) {
+            rejected.incrementAndGet();
+            throw new BulkheadRejectedException("Bulkhead::acquire -> Lane " + name + " is full (" + limit +
+                    " actions running).");
+        }
+    }
+
+    /**
+     * This method makes room for another action once an admitted one has finished.
+     */
+    void release() {
+        permits.release();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * This method returns how many actions of this lane are being executed.
+     *
+     * @return active actions
+     */
+    public int getActiveCount() {
+        return limit - permits.availablePermits();
+    }
+
+    /**
+     * This method returns how many actions are waiting to be admitted.
+     *
+     * @return waiting actions
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * This method returns how many actions have been rejected.
+     *
+     * @return rejected actions
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.paquitosoft.lml.model.action;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import org.paquitosoft.lml.model.annotation.PersistentEntity;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+import org.paquitosoft.lml.model.exception.ReflectionException;
+import org.paquitosoft.lml.model.util.ModelUtilities;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+import org.paquitosoft.lml.util.LMLGlobalOperations;
+
+/**
+ *  This is the routing strategy used when no other one is configured.
+ *  Routes are read from the connection settings file, one per entity class:
+ *  <ul>
+ *      <li>
+ *          <i>lml.connection.settings.route.com.foo.Invoice=billing</i>: every Invoice lives 
+ *          in the <b>billing</b> provider.
+ *      </li>
+ *      <li>
+ *          <i>lml.connection.settings.route.com.foo.Customer=shard1,shard2,shard3</i>: Customers 
+ *          are spread among those providers by the hash of their identifier.
+ *      </li>
+ *  </ul>
+ *  Classes without a route use the default provider. Finders (no identifier) use the 
+ *  first provider of their route.
+ *  <br/>
+ *  Entities spread by hash must have their identifier assigned before being written: keys 
+ *  generated by the database or by the library (<code>generateKey</code>) are only known once 
+ *  the entity has been inserted in a provider, so they cannot choose it. Writing such an 
+ *  entity without identifier is rejected.
+ * 
+ * @author paquitosoft
+ */
+public class DefaultRoutingStrategy implements IRoutingStrategy {
+
+    private ConcurrentHashMap<Class,String[]> routes = new ConcurrentHashMap<Class,String[]>();
+    
+    /**
+     * This method chooses the connection provider for an action.
+     * 
+     * @param action
+     * @return connection provider name or <b>null</b> to use the default one
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public String getProviderName(IRoutableAction action) throws InternalErrorException {
+        
+        Class entityType = action.getEntityType();
+        if (entityType == null) {
+            return null;
+        }
+        
+        String[] providers = getRoute(entityType);
+        
+        if (providers.length == 0) {
+            return null;
+        } else if (providers.length == 1) {
+            return providers[0];
+        }
+        
+        Object entityId = action.getEntityId();
+        if (entityId == null) {
+            if (action instanceof ITransactionalAction) {
+                throw new InternalErrorException("DefaultRoutingStrategy::getProviderName -> Entities of " + 
+                        entityType.getName() + " are spread among several providers by their identifier, " + 
+                        "so it must be assigned before they are written.");
+            }
+            return providers[0];
+        }
+        
+        return providers[(hash(entityId) & Integer.MAX_VALUE) % providers.length];
+    }
+    
+    /**
+     * This method gets the providers configured for an entity class.
+     * 
+     * @param entityType
+     * @return provider names (empty when the class has no route)
+     */
+    protected String[] getRoute(Class entityType) {
+        
+        String[] result = routes.get(entityType);
+        
+        if (result == null) {
+            result = LMLGlobalOperations.getConnectionSettingNames(CONNECTION_SETTINGS_ROUTE_PREFIX + entityType.getName());
+            routes.put(entityType, result);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method calculates a hash of an entity identifier that does not change between executions.
+     * Compound keys (entities) are hashed by the values of their primary key fields, and 
+     * fields holding another entity by the identifier of that entity.
+     * 
+     * @param entityId
+     * @return hash
+     * @throws org.paquitosoft.lml.model.exception.ReflectionException
+     */
+    protected int hash(Object entityId) throws ReflectionException {
+        
+        int result = 0;
+        
+        if (entityId.getClass().isAnnotationPresent(PersistentEntity.class)) {
+            try {
+                for (Field f : ModelUtilities.getEntityIdentifierFields(entityId.getClass())) {
+                    f.setAccessible(true);
+                    Object value = f.get(entityId);
+                    result = 31 * result + ((value == null) ? 0 : hash(value));
+                }
+            } catch (IllegalAccessException e) {
+                throw new ReflectionException("DefaultRoutingStrategy::hash", e);
+            }
+        } else {
+            result = entityId.hashCode();
+        }
+        
+        return result;
+    }
+    
+}
@@ -0,0 +1,153 @@
+package org.paquitosoft.lml.model.action;
+
+import java.sql.Connection;
+import org.paquitosoft.lml.model.action.connection.IConnectionProvider;
+import org.paquitosoft.lml.model.action.connection.Priority;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+
+/**
+ *  This class keeps, for every thread, the connection of the action being processed, 
+ *  so actions processed from inside it can join its connection and transaction.
+ *  Contexts are stacked: when an action needs a connection of its own, its context 
+ *  hides the outer one until it ends.
+ * 
+ * @author paquitosoft
+ */
+class ExecutionContext {
+
+    private static final ThreadLocal<ExecutionContext> current = new ThreadLocal<ExecutionContext>();
+    
+    private final ExecutionContext parent;
+    
+    private final Connection connection;
+    
+    private final IConnectionProvider primaryProvider;
+    
+    private final IConnectionProvider connectionProvider;
+    
+    private final String providerName;
+    
+    private final boolean transactional;
+    
+    private final long deadline;
+    
+    private final Priority priority;
+    
+    private boolean rollbackOnly;
+    
+    private ExecutionContext(ExecutionContext parent, Connection connection, IConnectionProvider primaryProvider, 
+            IConnectionProvider connectionProvider, String providerName, boolean transactional, long deadline, 
+            Priority priority) {
+        this.parent = parent;
+        this.connection = connection;
+        this.primaryProvider = primaryProvider;
+        this.connectionProvider = connectionProvider;
+        this.providerName = providerName;
+        this.transactional = transactional;
+        this.deadline = deadline;
+        this.priority = priority;
+    }
+    
+    /**
+     * This method returns the context of the action the current thread is executing.
+     * 
+     * @return current context (<b>null</b> when no action is being executed)
+     */
+    static ExecutionContext current() {
+        return current.get();
+    }
+    
+    /**
+     * This method returns the name of the provider the connection of the current context was taken from.
+     * 
+     * @return provider name (the default one when no action is being executed)
+     */
+    static String currentProviderName() {
+        ExecutionContext context = current.get();
+        return (context != null && context.providerName != null) ? context.providerName : DEFAULT_CONNECTION_PROVIDER;
+    }
+    
+    /**
+     * This method starts a new context in the current thread.
+     * 
+     * @param connection connection the action is executed with
+     * @param primaryProvider provider the action was routed to
+     * @param connectionProvider provider the connection was taken from (a read replica of the primary one or itself)
+     * @param providerName name of the provider the connection was taken from
+     * @param transactional whether the connection is in a transaction
+     * @param deadline (<code>System.nanoTime()</code> based, 0 means none)
+     * @param priority priority the action gets connections with
+     * @return new context
+     */
+    static ExecutionContext begin(Connection connection, IConnectionProvider primaryProvider, 
+            IConnectionProvider connectionProvider, String providerName, boolean transactional, long deadline, 
+            Priority priority) {
+        ExecutionContext result = new ExecutionContext(current.get(), connection, primaryProvider, connectionProvider, 
+                providerName, transactional, deadline, priority);
+        current.set(result);
+        return result;
+    }
+    
+    /**
+     * This method ends this context, making the outer one current again.
+     */
+    void end() {
+        if (parent == null) {
+            current.remove();
+        } else {
+            current.set(parent);
+        }
+    }
+    
+    /**
+     * This method checks whether an action routed to the given provider can use the connection of this context.
+     * 
+     * @param provider provider the action was routed to
+     * @param needsPrimary <b>false</b> when the action could be executed in a read replica
+     * @return <b>true</b> when the action can join this context
+     */
+    boolean canJoin(IConnectionProvider provider, boolean needsPrimary) {
+        return connectionProvider == provider || (!needsPrimary && primaryProvider == provider);
+    }
+    
+    Connection getConnection() {
+        return connection;
+    }
+
+    IConnectionProvider getPrimaryProvider() {
+        return primaryProvider;
+    }
+
+    IConnectionProvider getConnectionProvider() {
+        return connectionProvider;
+    }
+
+    String getProviderName() {
+        return providerName;
+    }
+
+    boolean isTransactional() {
+        return transactional;
+    }
+    
+    long getDeadline() {
+        return deadline;
+    }
+    
+    Priority getPriority() {
+        return priority;
+    }
+    
+    /**
+     * This method records that an action joined to this context failed, so its 
+     * transaction must not be committed.
+     */
+    void setRollbackOnly() {
+        rollbackOnly = true;
+    }
+    
+    boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+    
+}
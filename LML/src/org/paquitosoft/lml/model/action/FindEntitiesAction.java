@@ -13,7 +13,7 @@ import org.paquitosoft.lml.model.util.ModelUtilities;
  * 
  * @author paquitosoft
  */
-public class FindEntitiesAction<T> implements INonTransactionalAction {
+public class FindEntitiesAction<T> implements INonTransactionalAction, IRoutableAction, IRetryableAction {
 
     private String query;
     
@@ -33,7 +33,7 @@ public class FindEntitiesAction<T> implements INonTransactionalAction {
     public T execute(Connection connection) throws InternalErrorException {
         
         // Create an instance of default DAO
-        IDefaultDAO dao = DAOFactory.getDefaultDAO(connection);
+        IDefaultDAO dao = DAOFactory.getDefaultDAO(connection, ExecutionContext.currentProviderName());
         
         // Execute query
         List<T> result = dao.finder(entityType, query, params);
@@ -53,4 +53,21 @@ public class FindEntitiesAction<T> implements INonTransactionalAction {
         return (T) result;
     }
 
+    public Class getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * Custom queries are not bound to a single entity identifier.
+     * 
+     * @return <b>null</b>
+     */
+    public Object getEntityId() {
+        return null;
+    }
+
+    public boolean isRetryable() {
+        return true;
+    }
+
 }
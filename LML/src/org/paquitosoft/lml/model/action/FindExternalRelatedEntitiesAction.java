@@ -45,7 +45,7 @@ public class FindExternalRelatedEntitiesAction<T> implements INonTransactionalAc
     public T execute(Connection connection) throws InternalErrorException {
 
         // Create an instance of default DAO
-        IDefaultDAO dao = DAOFactory.getDefaultDAO(connection);
+        IDefaultDAO dao = DAOFactory.getDefaultDAO(connection, ExecutionContext.currentProviderName());
 
         // Check join table name
         if (joinTableName == null) {
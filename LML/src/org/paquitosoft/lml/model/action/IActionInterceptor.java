@@ -0,0 +1,28 @@
+package org.paquitosoft.lml.model.action;
+
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This interface lets applications run their own code around the execution of every 
+ *  action (timing, caching, auditing, tracing...). Interceptors are registered globally 
+ *  in <code>ActionProcessor</code> and called in the order they were registered.
+ *  <br/>
+ *  An interceptor usually calls <code>invocation.proceed()</code> to run the rest of the 
+ *  chain and the action, and sees its outcome as the returned value or the thrown exception.
+ *  It can also return a result without proceeding, in which case the action is not executed.
+ *  Interceptors are shared by every thread, so they must be thread safe.
+ * 
+ * @author paquitosoft
+ */
+public interface IActionInterceptor {
+
+    /**
+     * This method is called instead of executing the action.
+     * 
+     * @param invocation action being executed, with its connection
+     * @return the result of the action (or a replacement for it)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    Object intercept(IActionInvocation invocation) throws InternalErrorException;
+    
+}
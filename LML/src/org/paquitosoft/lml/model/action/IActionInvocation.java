@@ -0,0 +1,35 @@
+package org.paquitosoft.lml.model.action;
+
+import java.sql.Connection;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This interface represents the execution of an action as seen by an interceptor.
+ * 
+ * @author paquitosoft
+ */
+public interface IActionInvocation {
+
+    /**
+     * This method returns the action being executed.
+     * 
+     * @return action
+     */
+    IAction getAction();
+    
+    /**
+     * This method returns the connection the action is executed with.
+     * 
+     * @return connection
+     */
+    Connection getConnection();
+    
+    /**
+     * This method calls the next interceptor or, at the end of the chain, executes the action.
+     * 
+     * @return the result of the action
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    Object proceed() throws InternalErrorException;
+    
+}
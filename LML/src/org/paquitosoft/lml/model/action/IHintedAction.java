@@ -0,0 +1,36 @@
+package org.paquitosoft.lml.model.action;
+
+/**
+ *  This interface lets an action tell <code>ActionProcessor</code> how the connection
+ *  it is executed with must be configured. Every method may return <b>null</b> to keep
+ *  the default behaviour. The connection is restored before being released.
+ *  <br/>
+ *  Hints are ignored when the action joins the connection of an outer action 
+ *  (see <code>Propagation</code>): it runs with the settings of that one.
+ * 
+ * @author paquitosoft
+ */
+public interface IHintedAction extends IAction {
+
+    /**
+     * This method returns the transaction isolation level the action needs.
+     * 
+     * @return one of the <code>Connection.TRANSACTION_*</code> constants (<b>null</b> for the driver default)
+     */
+    Integer getIsolationLevel();
+    
+    /**
+     * This method tells whether the action only reads from the database.
+     * 
+     * @return read only flag (<b>null</b> to keep the one of the connection)
+     */
+    Boolean getReadOnly();
+    
+    /**
+     * This method returns the direction in which the action will read its results.
+     * 
+     * @return one of the <code>ResultSet.FETCH_*</code> constants (<b>null</b> for the driver default)
+     */
+    Integer getFetchDirection();
+    
+}
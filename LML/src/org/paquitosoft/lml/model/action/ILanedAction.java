@@ -0,0 +1,18 @@
+package org.paquitosoft.lml.model.action;
+
+/**
+ *  This interface lets an action choose the bulkhead (lane) it is admitted through, 
+ *  instead of the one configured for its class (see <code>Bulkhead</code>).
+ * 
+ * @author paquitosoft
+ */
+public interface ILanedAction extends IAction {
+
+    /**
+     * This method returns the name of the lane this action belongs to.
+     * 
+     * @return lane name (<b>null</b> to use the lane of its class)
+     */
+    String getLane();
+    
+}
@@ -0,0 +1,19 @@
+package org.paquitosoft.lml.model.action;
+
+/**
+ *  This interface denotes an action that can be safely executed again once its 
+ *  transaction has been rolled back, so <code>ActionProcessor</code> retries it when 
+ *  it fails because of a transient database error (deadlocks, serialization failures...).
+ * 
+ * @author paquitosoft
+ */
+public interface IRetryableAction extends IAction {
+
+    /**
+     * This method tells whether this action can be executed again after a transient failure.
+     * 
+     * @return <b>true</b> when the action can be retried
+     */
+    boolean isRetryable();
+    
+}
@@ -0,0 +1,29 @@
+package org.paquitosoft.lml.model.action;
+
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This interface denotes an action that works on a known entity, so it can be 
+ *  routed to the connection provider (shard) that owns it.
+ * 
+ * @author paquitosoft
+ */
+public interface IRoutableAction extends IAction {
+
+    /**
+     * This method returns the type of the entity this action works on.
+     * 
+     * @return entity type
+     */
+    Class getEntityType();
+    
+    /**
+     * This method returns the identifier of the entity this action works on 
+     * (the entity itself when it has a compound key).
+     * 
+     * @return entity identifier or <b>null</b> when it is not known
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    Object getEntityId() throws InternalErrorException;
+    
+}
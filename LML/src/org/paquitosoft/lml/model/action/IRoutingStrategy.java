@@ -0,0 +1,22 @@
+package org.paquitosoft.lml.model.action;
+
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This interface dictates how actions are routed to the connection provider 
+ *  (database node) that owns the entity they work on.
+ * 
+ * @author paquitosoft
+ */
+public interface IRoutingStrategy {
+
+    /**
+     * This method chooses the connection provider for an action.
+     * 
+     * @param action
+     * @return connection provider name or <b>null</b> to use the default one
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    String getProviderName(IRoutableAction action) throws InternalErrorException;
+    
+}
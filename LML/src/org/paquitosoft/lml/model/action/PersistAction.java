@@ -24,7 +24,7 @@ import static org.paquitosoft.lml.util.LMLConstants.*;
  * 
  * @author paquitosoft
  */
-public class PersistAction<T> implements ITransactionalAction {
+public class PersistAction<T> implements ITransactionalAction, IRoutableAction, IRetryableAction {
 
     Logger logger = Logger.getLogger(PersistAction.class.getName());
     
@@ -55,12 +55,15 @@ public class PersistAction<T> implements ITransactionalAction {
         List<Field> cascadeAttributes = ModelUtilities.getCascadeAttributes(entity.getClass());
         
         // Get default DAO
-        IDefaultDAO dao = DAOFactory.getDefaultDAO(connection);
+        IDefaultDAO dao = DAOFactory.getDefaultDAO(connection, ExecutionContext.currentProviderName());
         T result = entity;
         
         if (PERSIST_MODE_SAVE == mode) {
             result = dao.insert(entity);
             persistAssociatedAttributes(cascadeAttributes, connection, entity, mode); // AFTER
+        } else if (PERSIST_MODE_SAVE_OR_UPDATE == mode) {
+            result = dao.upsert(entity);
+            persistAssociatedAttributes(cascadeAttributes, connection, entity, mode); // AFTER
         } else if (PERSIST_MODE_UPDATE == mode) {
             result = dao.update(entity);
             persistAssociatedAttributes(cascadeAttributes, connection, entity, mode); // AFTER
@@ -78,6 +81,24 @@ public class PersistAction<T> implements ITransactionalAction {
         return result;
     }
 
+    public Class getEntityType() {
+        return entity.getClass();
+    }
+
+    public Object getEntityId() throws InternalErrorException {
+        return ModelUtilities.getEntityIdentifier(entity);
+    }
+
+    /**
+     * Updates and removals can be executed again once rolled back. Saves cannot, 
+     * as the identifier they generated may have been taken by someone else meanwhile.
+     * 
+     * @return <b>true</b> unless this action saves (or saves or updates) the entity
+     */
+    public boolean isRetryable() {
+        return PERSIST_MODE_SAVE != mode && PERSIST_MODE_SAVE_OR_UPDATE != mode;
+    }
+
     /**
      * This method is used to persist a collection of cascade attributes from an entity.
      * 
@@ -0,0 +1,117 @@
+package org.paquitosoft.lml.model.action;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.paquitosoft.lml.model.dao.DAOFactory;
+import org.paquitosoft.lml.model.dao.IDefaultDAO;
+import org.paquitosoft.lml.model.dao.InsertStrategy;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+import org.paquitosoft.lml.model.util.ModelUtilities;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+
+/**
+ *  This action is used to persist a collection of entities with as few round trips 
+ *  as possible (see <code>IDefaultDAO.insertAll</code>). Associated attributes are 
+ *  persisted afterwards entity by entity, as <code>PersistAction</code> does.
+ *  <br/>
+ *  The action is routed as its first entity, so every entity should belong 
+ *  to the same connection provider.
+ * 
+ * @author paquitosoft
+ */
+public class PersistAllAction<T> implements ITransactionalAction, IRoutableAction, IRetryableAction {
+
+    private List<T> entities;
+    
+    private byte mode;
+    
+    private InsertStrategy strategy;
+    
+    /**
+     * Constructor dictates params the action needs to be executed.
+     * <b>mode</b> is one of the constants defined in <code>LMLConstants</code> 
+     * (<code>PERSIST_MODE_DELETE</code> is not supported: see <code>RemoveAllAction</code>).
+     * @param entities
+     * @param mode
+     */
+    public PersistAllAction(Collection<T> entities, byte mode) {
+        this(entities, mode, InsertStrategy.BATCH);
+    }
+    
+    /**
+     * Constructor.
+     * @param entities
+     * @param mode
+     * @param strategy how saved entities are sent to the database
+     */
+    public PersistAllAction(Collection<T> entities, byte mode, InsertStrategy strategy) {
+        this.entities = new ArrayList<T>(entities);
+        this.mode = mode;
+        this.strategy = strategy;
+    }
+    
+    /**
+     * 
+     * @param connection
+     * @return entities (in the same order) or, when updating, the number of updated records
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public Object execute(Connection connection) throws InternalErrorException {
+        
+        // Get default DAO
+        IDefaultDAO dao = DAOFactory.getDefaultDAO(connection, ExecutionContext.currentProviderName());
+        Object result = entities;
+        
+        if (PERSIST_MODE_SAVE == mode) {
+            result = dao.insertAll(entities, strategy);
+            persistAssociatedAttributes(connection); // AFTER
+        } else if (PERSIST_MODE_SAVE_OR_UPDATE == mode) {
+            result = dao.upsertAll(entities);
+            persistAssociatedAttributes(connection); // AFTER
+        } else if (PERSIST_MODE_UPDATE == mode) {
+            result = dao.updateAll(entities);
+            persistAssociatedAttributes(connection); // AFTER
+        } else {
+            throw new InternalErrorException("PersistAllAction::execute -> Unknown mode operation: " + mode);
+        }
+        
+        return result;
+    }
+
+    public Class getEntityType() {
+        return entities.isEmpty() ? null : entities.get(0).getClass();
+    }
+
+    public Object getEntityId() throws InternalErrorException {
+        return entities.isEmpty() ? null : ModelUtilities.getEntityIdentifier(entities.get(0));
+    }
+
+    /**
+     * Saves cannot be executed again, as the identifiers they generated may have 
+     * been taken by someone else meanwhile (see <code>PersistAction</code>).
+     * 
+     * @return <b>true</b> unless this action saves (or saves or updates) the entities
+     */
+    public boolean isRetryable() {
+        return PERSIST_MODE_SAVE != mode && PERSIST_MODE_SAVE_OR_UPDATE != mode;
+    }
+    
+    /**
+     * This method persists the cascade attributes of every entity.
+     * 
+     * @param connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private void persistAssociatedAttributes(Connection connection) throws InternalErrorException {
+        for (T entity : entities) {
+            List<Field> cascadeAttributes = ModelUtilities.getCascadeAttributes(entity.getClass());
+            if (!cascadeAttributes.isEmpty()) {
+                new PersistAction<T>(entity, mode).persistAssociatedAttributes(cascadeAttributes, connection, entity, mode);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package org.paquitosoft.lml.model.action;
+
+/**
+ *  Values used to tell <code>ActionProcessor</code> what to do when an action is 
+ *  processed while another one is being executed by the same thread:
+ *  <ul>
+ *      <li><b>REQUIRED</b>: join the connection (and transaction) of the outer action.</li>
+ *      <li><b>REQUIRES_NEW</b>: use a connection and transaction of its own.</li>
+ *      <li><b>SUPPORTS</b>: join the outer action if there is one; otherwise run without transaction.</li>
+ *  </ul>
+ * 
+ * @author paquitosoft
+ */
+public enum Propagation {
+
+    REQUIRED, REQUIRES_NEW, SUPPORTS
+    
+}
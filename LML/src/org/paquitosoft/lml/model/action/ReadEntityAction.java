@@ -19,7 +19,7 @@ import org.paquitosoft.lml.util.LMLGlobalOperations;
  * 
  * @author paquitosoft
  */
-public class ReadEntityAction<T> implements INonTransactionalAction {
+public class ReadEntityAction<T> implements INonTransactionalAction, IRoutableAction, IRetryableAction {
 
     private Class<T> entityType;
     
@@ -62,7 +62,7 @@ public class ReadEntityAction<T> implements INonTransactionalAction {
         if (result == null) {
             
             // Create an instance of default dao
-            IDefaultDAO dao = DAOFactory.getDefaultDAO(connection);
+            IDefaultDAO dao = DAOFactory.getDefaultDAO(connection, ExecutionContext.currentProviderName());
 
             // Read entity table
             result = dao.read(entityType, entityId);
@@ -75,6 +75,18 @@ public class ReadEntityAction<T> implements INonTransactionalAction {
         return result;
     }
 
+    public Class getEntityType() {
+        return (entity != null) ? entity.getClass() : entityType;
+    }
+
+    public Object getEntityId() throws InternalErrorException {
+        return (entity != null) ? ModelUtilities.getEntityIdentifier(entity) : entityId;
+    }
+
+    public boolean isRetryable() {
+        return true;
+    }
+
     /**
      * This method is used to complete an entity with the information of its related 
      *  entities depending on the detailLevel.
@@ -0,0 +1,66 @@
+package org.paquitosoft.lml.model.action;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.paquitosoft.lml.model.dao.DAOFactory;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This action is used to remove many entities of the same class by their identifiers 
+ *  with as few statements as possible (see <code>IDefaultDAO.removeAll</code>). 
+ *  Unlike <code>PersistAction</code>, associated entities are not removed.
+ *  <br/>
+ *  The action is routed as its first identifier, so every entity should belong 
+ *  to the same connection provider (<code>LMLFacadeImpl.removeAll</code> splits the 
+ *  identifiers by provider before removing them).
+ * 
+ * @author paquitosoft
+ */
+public class RemoveAllAction<T> implements ITransactionalAction, IRoutableAction, IRetryableAction {
+
+    private Class<T> entityClass;
+    
+    private List<Object> entityIds;
+    
+    /**
+     * Constructor dictates params the action needs to be executed.
+     * When the entity has a compund key, every identifier is an entity filled with key values.
+     * @param entityClass
+     * @param entityIds
+     */
+    public RemoveAllAction(Class<T> entityClass, Collection<?> entityIds) {
+        this.entityClass = entityClass;
+        this.entityIds = new ArrayList<Object>(entityIds);
+    }
+    
+    /**
+     * 
+     * @param connection
+     * @return number of removed records
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public Integer execute(Connection connection) throws InternalErrorException {
+        return DAOFactory.getDefaultDAO(connection, ExecutionContext.currentProviderName())
+                .removeAll(entityClass, entityIds);
+    }
+
+    public Class getEntityType() {
+        return entityClass;
+    }
+
+    public Object getEntityId() throws InternalErrorException {
+        return entityIds.isEmpty() ? null : entityIds.get(0);
+    }
+
+    /**
+     * Removals can be executed again once rolled back.
+     * 
+     * @return <b>true</b>
+     */
+    public boolean isRetryable() {
+        return true;
+    }
+    
+}
@@ -0,0 +1,127 @@
+package org.paquitosoft.lml.model.action;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+import org.paquitosoft.lml.util.LMLGlobalOperations;
+
+/**
+ *  This class decides which failures are worth retrying and how long to wait before doing it.
+ *  <br/>
+ *  A failure is transient when the chain of causes holds a <code>SQLException</code> of class 
+ *  <i>40</i> (transaction rollback: deadlocks, serialization failures) or one whose vendor code 
+ *  is in <b>lml.connection.settings.retry.vendor.codes</b>. <i>40003</i> (statement completion unknown) 
+ *  is never transient: the transaction may have been committed, so retrying could apply it twice.
+ *  Actions are executed up to <b>lml.connection.settings.retry.max.attempts</b> times and 
+ *  retries wait a random time (full jitter) below an exponentially growing limit: 
+ *  <b>lml.connection.settings.retry.backoff</b> milliseconds doubled on every attempt, up to 
+ *  <b>lml.connection.settings.retry.max.backoff</b>.
+ * 
+ * @author paquitosoft
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    
+    private final long backoff;
+    
+    private final long maxBackoff;
+    
+    private final Set<Integer> vendorCodes = new HashSet<Integer>();
+    
+    /**
+     * Constructor. The policy is read from the connection settings file.
+     */
+    public RetryPolicy() {
+        this(Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_RETRY_MAX_ATTEMPTS, 
+                    String.valueOf(DEFAULT_RETRY_MAX_ATTEMPTS))),
+             Long.parseLong(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_RETRY_BACKOFF, 
+                    String.valueOf(DEFAULT_RETRY_BACKOFF))),
+             Long.parseLong(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_RETRY_MAX_BACKOFF, 
+                    String.valueOf(DEFAULT_RETRY_MAX_BACKOFF))),
+             LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_RETRY_VENDOR_CODES, DEFAULT_RETRY_VENDOR_CODES));
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param maxAttempts how many times an action is executed at most (1 disables retries)
+     * @param backoff wait limit (milliseconds) before the first retry
+     * @param maxBackoff maximum wait limit (milliseconds)
+     * @param vendorCodes comma separated list of vendor error codes to be retried
+     */
+    public RetryPolicy(int maxAttempts, long backoff, long maxBackoff, String vendorCodes) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        for (String code : vendorCodes.split(",")) {
+            if (code.trim().length() > 0) {
+                this.vendorCodes.add(Integer.valueOf(code.trim()));
+            }
+        }
+    }
+    
+    /**
+     * This method returns how many times an action is executed at most.
+     * 
+     * @return max attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    
+    /**
+     * This method checks whether a failure is caused by a transient database error.
+     * 
+     * @param failure
+     * @return <b>true</b> when executing the action again could succeed
+     */
+    public boolean isTransient(Throwable failure) {
+        
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                for (SQLException ex = (SQLException) cause; ex != null; ex = ex.getNextException()) {
+                    if (isTransient(ex)) {
+                        return true;
+                    }
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * This method classifies a single SQL exception.
+     * 
+     * @param ex
+     * @return <b>true</b> when the exception denotes a transient error
+     */
+    protected boolean isTransient(SQLException ex) {
+        String state = ex.getSQLState();
+        if ("40003".equals(state)) {
+            return false;
+        }
+        return ex instanceof SQLTransactionRollbackException || 
+                (state != null && state.startsWith("40")) || 
+                vendorCodes.contains(ex.getErrorCode());
+    }
+    
+    /**
+     * This method calculates how long to wait before a retry.
+     * 
+     * @param attempt number of the attempt that has just failed (starting at 1)
+     * @return milliseconds to wait
+     */
+    public long getBackoff(int attempt) {
+        long limit = Math.min(maxBackoff, backoff << Math.min(attempt - 1, 30));
+        return (limit <= 0) ? 0 : ThreadLocalRandom.current().nextLong(limit + 1);
+    }
+    
+}
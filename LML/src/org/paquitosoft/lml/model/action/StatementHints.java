@@ -0,0 +1,82 @@
+package org.paquitosoft.lml.model.action;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  This class applies the statement level settings of an action (fetch direction hint 
+ *  and deadline) to every statement it creates, handing the action a proxy of its connection.
+ * 
+ * @author paquitosoft
+ */
+class StatementHints implements InvocationHandler {
+
+    private final Connection connection;
+    
+    private final Integer fetchDirection;
+    
+    private final long deadline;
+    
+    private StatementHints(Connection connection, Integer fetchDirection, long deadline) {
+        this.connection = connection;
+        this.fetchDirection = fetchDirection;
+        this.deadline = deadline;
+    }
+    
+    /**
+     * This method returns a connection whose statements read their results in the given 
+     * direction and are given the time left until the deadline as query timeout.
+     * 
+     * @param connection
+     * @param fetchDirection one of the <code>ResultSet.FETCH_*</code> constants (<b>null</b> to keep the driver default)
+     * @param deadline (<code>System.nanoTime()</code> based, 0 means none)
+     * @return connection proxy
+     */
+    static Connection apply(Connection connection, Integer fetchDirection, long deadline) {
+        return (Connection) Proxy.newProxyInstance(StatementHints.class.getClassLoader(),
+                new Class[] {Connection.class}, new StatementHints(connection, fetchDirection, deadline));
+    }
+    
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        
+        String name = method.getName();
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name) && args == null) {
+            return System.identityHashCode(proxy);
+        }
+        
+        boolean createsStatement = Statement.class.isAssignableFrom(method.getReturnType());
+        long remaining = deadline - System.nanoTime();
+        if (createsStatement && deadline != 0 && remaining <= 0) {
+            throw new SQLTimeoutException("StatementHints -> The action deadline has passed.");
+        }
+        
+        Object result;
+        try {
+            result = method.invoke(connection, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+        
+        if (createsStatement) {
+            Statement statement = (Statement) result;
+            if (fetchDirection != null) {
+                statement.setFetchDirection(fetchDirection);
+            }
+            if (deadline != 0) {
+                // Query timeouts are expressed in whole seconds (0 would mean no timeout at all)
+                statement.setQueryTimeout((int) Math.max(1, (TimeUnit.NANOSECONDS.toMillis(remaining) + 999) / 1000));
+            }
+        }
+        
+        return result;
+    }
+    
+}
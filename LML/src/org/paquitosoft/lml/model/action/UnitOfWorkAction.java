@@ -0,0 +1,98 @@
+package org.paquitosoft.lml.model.action;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This action executes a list of actions, in order, with the same connection.
+ *  As it is a transactional action, <code>ActionProcessor</code> commits all of them
+ *  at once (or rolls all of them back when one fails).
+ *  <br/>
+ *  The unit of work is routed as its first routable action, so every action in it
+ *  must belong to the same connection provider: an action routed to another one 
+ *  makes the whole unit of work fail.
+ *  <br/>
+ *  Every action goes through the interceptor chain and gets its statement hints, as if it 
+ *  had been processed on its own (see <code>ActionProcessor.processJoined</code>).
+ *
+ * @author paquitosoft
+ */
+public class UnitOfWorkAction implements ITransactionalAction, IRoutableAction, IRetryableAction {
+
+    private List<IAction> actions;
+
+    /**
+     * Constructor.
+     *
+     * @param actions actions to be executed (in this order)
+     */
+    public UnitOfWorkAction(List<IAction> actions) {
+        this.actions = new ArrayList<IAction>(actions);
+    }
+
+    /**
+     * This method executes every action with the connection (and transaction) of the unit of work.
+     *
+     * @param connection
+     * @return list with the result of every action (in the same order)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public List<Object> execute(Connection connection) throws InternalErrorException {
+
+        List<Object> result = new ArrayList<Object>(actions.size());
+
+        for (IAction action : actions) {
+            result.add(ActionProcessor.processJoined(action));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * This method returns the entity type of the first routable action.
+     *
+     * @return entity type (<b>null</b> when no action is routable)
+     */
+    public Class getEntityType() {
+        IRoutableAction first = getFirstRoutableAction();
+        return (first == null) ? null : first.getEntityType();
+    }
+
+    /**
+     * This method returns the entity identifier of the first routable action.
+     *
+     * @return entity identifier (<b>null</b> when no action is routable)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public Object getEntityId() throws InternalErrorException {
+        IRoutableAction first = getFirstRoutableAction();
+        return (first == null) ? null : first.getEntityId();
+    }
+
+    /**
+     * A unit of work can be executed again when every action in it can.
+     *
+     * @return <b>true</b> when every action is retryable
+     */
+    public boolean isRetryable() {
+        for (IAction action : actions) {
+            if (!(action instanceof IRetryableAction) || !((IRetryableAction) action).isRetryable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IRoutableAction getFirstRoutableAction() {
+        for (IAction action : actions) {
+            if (action instanceof IRoutableAction) {
+                return (IRoutableAction) action;
+            }
+        }
+        return null;
+    }
+
+}
@@ -2,120 +2,1024 @@ package org.paquitosoft.lml.model.action.connection;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 import static org.paquitosoft.lml.util.LMLConstants.*;
 import org.paquitosoft.lml.util.LMLGlobalOperations;
 
 
 /**
+ *  This class keeps an elastic set of database connections that can be
+ *  shared between threads.
+ *  There is one pool per name: the <b>default</b> one reads the <i>lml.connection.settings.*</i>
+ *  keys and the named ones (read replicas, shards...) read <i>lml.connection.settings.&lt;name&gt;.*</i>
+ *  keys, falling back to the default ones.
+ *  Available connections are kept in a lock-free deque and a semaphore
+ *  counts them, so borrowing and releasing a connection are O(1) operations.
+ *  When every connection is busy, callers wait (up to the configured timeout) in a FIFO
+ *  queue per <code>Priority</code> and a released connection is handed straight to the longest
+ *  waiter with the highest priority. To keep batch work going under a steady online load, a
+ *  waiter that has been queued for more than <b>lml.connection.settings.pool.starvation.threshold</b>
+ *  milliseconds (0 disables it) is served first, whatever its priority.
+ *  Waiting threads are parked with <code>LockSupport</code> and no monitor is held while
+ *  borrowing, releasing or opening connections, so the pool can be shared by thousands
+ *  of (virtual) threads without pinning their carriers.
+ *  <br/>
+ *  The pool grows on demand up to <b>lml.connection.settings.pool.max.size</b> connections
+ *  and a background task shrinks it back to <b>lml.connection.settings.pool.min.idle</b>
+ *  closing connections that have been idle or alive for too long.
+ *  <br/>
+ *  Connections are validated (<code>Connection.isValid</code>) before being handed out when
+ *  they have not been checked for <b>lml.connection.settings.pool.validation.interval</b>
+ *  milliseconds, and idle ones are periodically checked by the same background task, so broken
+ *  connections are replaced without the caller noticing.
+ *  <br/>
+ *  Every pooled connection keeps its own cache of prepared statements
+ *  (<b>lml.connection.settings.pool.statement.cache.size</b> statements, 0 disables it).
+ *  <br/>
+ *  When <b>lml.connection.settings.pool.leak.detection.threshold</b> is set, connections held
+ *  for longer than that many milliseconds are logged with the stack trace of the borrow, and
+ *  those held for more than <b>lml.connection.settings.pool.leak.reclaim.threshold</b>
+ *  milliseconds are closed and their slot given back to the pool.
+ *  <br/>
+ *  Pool metrics are available through <code>getMetrics()</code> and JMX.
  *
  * @author paquitosoft
  */
-public class ConnectionPool {
-    
-    private static ConnectionPool instance;
-    
-    private final static Byte AVAILABLE = 1;
-    
-    private final static Byte BUSY = 2;
-    
-    private static HashMap<Connection,Byte> pool = new HashMap<Connection,Byte>();
-    
+public class ConnectionPool implements IConnectionProvider {
+
+    private static Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+    private static final ConcurrentHashMap<String,ConnectionPool> instances = new ConcurrentHashMap<String,ConnectionPool>();
+
+    // Pools open connections while they are being created, so a lock (and not a monitor) guards it
+    private static final ReentrantLock instancesLock = new ReentrantLock();
+
+    // Marks a waiter that gave up (timeout or interruption), so nobody hands it a connection
+    private static final Object CANCELLED = new Object();
+
+    private final String name;
+
+    // Most recently used connections are kept at the head, so the tail holds the ones that can be evicted
+    private final ConcurrentLinkedDeque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<PooledConnection>();
+
+    private final ConcurrentHashMap<Connection,PooledConnection> busyConnections = new ConcurrentHashMap<Connection,PooledConnection>();
+
+    // One permit per idle connection: nobody takes a connection from the deque without owning a permit
+    private final Semaphore availableConnections = new Semaphore(0);
+
+    // Threads waiting for a connection, one queue per priority (highest first) with the longest waiter first
+    private final List<Queue<Waiter>> waiters = new ArrayList<Queue<Waiter>>();
+
+    private final AtomicInteger pendingThreads = new AtomicInteger(0);
+
+    private final AtomicInteger totalConnections = new AtomicInteger(0);
+
+    private final ConnectionPoolMetrics metrics = new ConnectionPoolMetrics(this);
+
+    private ObjectName metricsName;
+
+    private final ScheduledExecutorService housekeeper;
+
+    private final long acquireTimeout;
+
+    private final int minIdle;
+
+    private final int maxSize;
+
+    private final long idleTimeout;
+
+    private final long maxLifetime;
+
+    private final long validationInterval;
+
+    private final int validationTimeout;
+
+    private final long keepaliveInterval;
+
+    private final int statementCacheSize;
+
+    private final long leakDetectionThreshold;
+
+    private final long leakReclaimThreshold;
+
+    private final long starvationThreshold;
+
+    private volatile boolean closed;
+
     /**
-     * Private constructor because we want to use this class as a singleton
+     * Private constructor: pools are shared by name (see <code>getInstance(String)</code>).
+     * 
+     * @param name
      */
-    private ConnectionPool() {                
+    private ConnectionPool(String name) {
+        this.name = name;
+        String poolSize = getSetting(CONNECTION_SETTINGS_POOL_SIZE, "");
+        acquireTimeout = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_ACQUIRE_TIMEOUT,
+                String.valueOf(DEFAULT_POOL_ACQUIRE_TIMEOUT)));
+        minIdle = Integer.parseInt(getSetting(CONNECTION_SETTINGS_POOL_MIN_IDLE, poolSize));
+        maxSize = Math.max(minIdle, Integer.parseInt(getSetting(CONNECTION_SETTINGS_POOL_MAX_SIZE, poolSize)));
+        idleTimeout = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_IDLE_TIMEOUT,
+                String.valueOf(DEFAULT_POOL_IDLE_TIMEOUT)));
+        maxLifetime = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_MAX_LIFETIME,
+                String.valueOf(DEFAULT_POOL_MAX_LIFETIME)));
+        validationInterval = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_VALIDATION_INTERVAL,
+                String.valueOf(DEFAULT_POOL_VALIDATION_INTERVAL)));
+        validationTimeout = Integer.parseInt(getSetting(CONNECTION_SETTINGS_POOL_VALIDATION_TIMEOUT,
+                String.valueOf(DEFAULT_POOL_VALIDATION_TIMEOUT)));
+        keepaliveInterval = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_KEEPALIVE_INTERVAL,
+                String.valueOf(DEFAULT_POOL_KEEPALIVE_INTERVAL)));
+        statementCacheSize = Integer.parseInt(getSetting(CONNECTION_SETTINGS_POOL_STATEMENT_CACHE_SIZE,
+                String.valueOf(DEFAULT_POOL_STATEMENT_CACHE_SIZE)));
+        leakDetectionThreshold = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_LEAK_DETECTION_THRESHOLD, "0"));
+        leakReclaimThreshold = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_LEAK_RECLAIM_THRESHOLD, "0"));
+        starvationThreshold = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_STARVATION_THRESHOLD,
+                String.valueOf(DEFAULT_POOL_STARVATION_THRESHOLD))));
+        for (int i = 0; i < Priority.values().length; i++) {
+            waiters.add(new ConcurrentLinkedQueue<Waiter>());
+        }
+        housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread result = new Thread(task, "lml-pool-housekeeper-" + ConnectionPool.this.name);
+                result.setDaemon(true);
+                return result;
+            }
+        });
     }
-    
+
     /**
-     * This method always returns the same instance of the pool.
-     * The pool is initialized at this time with the parameters founded in 
+     * This method always returns the same instance of the default pool.
+     * The pool is initialized at this time with the parameters founded in
      * the <b>lml-conn-settings</b> file.
      * @return
      * @throws org.paquitosoft.lml.model.exception.InternalErrorException
      */
     public static ConnectionPool getInstance() throws InternalErrorException {
-        
-        if (instance == null) {
+        return getInstance(DEFAULT_CONNECTION_PROVIDER);
+    }
+
+    /**
+     * This method always returns the same instance of the pool with the given name.
+     * The pool is initialized the first time it is requested with the 
+     * <i>lml.connection.settings.&lt;name&gt;.*</i> parameters founded in the 
+     * <b>lml-conn-settings</b> file (falling back to the default ones).
+     * 
+     * @param name
+     * @return
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static ConnectionPool getInstance(String name) throws InternalErrorException {
+        return start(name, null);
+    }
+
+    /**
+     * This method eagerly starts the default pool (see <code>start(String, IPoolWarmUpListener)</code>).
+     *
+     * @param listener progress listener (may be <b>null</b>)
+     * @return started pool
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static ConnectionPool start(IPoolWarmUpListener listener) throws InternalErrorException {
+        return start(DEFAULT_CONNECTION_PROVIDER, listener);
+    }
+
+    /**
+     * This method eagerly starts the pool with the given name, so applications can pay the
+     * cost of opening its connections at startup instead of on the first request.
+     * The initial connections are opened in parallel (<b>pool.warmup.parallelism</b> threads) and,
+     * when <b>pool.warmup.query</b> is set, that query is executed on each of them.
+     * If the pool had already been started, it is just returned.
+     *
+     * @param name
+     * @param listener progress listener (may be <b>null</b>)
+     * @return started pool
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static ConnectionPool start(String name, IPoolWarmUpListener listener) throws InternalErrorException {
+
+        ConnectionPool result = instances.get(name);
+
+        if (result == null) {
+            instancesLock.lock();
             try {
-                instance = new ConnectionPool();
-                Class.forName(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_DRIVER).trim());
-                initPool();
-            } catch (ClassNotFoundException ex) {
-                instance = null; // If initialization fails we need to set null to instance in order to recreate it next time we try; otherwise it won't invoke initPool method again
-                throw new InternalErrorException("ConnectionPool::getInstance -> Could not load driver: " + 
-                        LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_DRIVER).trim(), ex);
-            } catch (SQLException ex) {
-                instance = null; // If initialization fails we need to set null to instance in order to recreate it next time we try; otherwise it won't invoke initPool method again
-                throw new InternalErrorException("ConnectionPool::getInstance -> SQL problem.", ex);
-            }
-            
+                result = instances.get(name);
+                if (result == null) {
+                    ConnectionPool pool = new ConnectionPool(name);
+                    String driver = pool.getSetting(CONNECTION_SETTINGS_DRIVER, "");
+                    try {
+                        Class.forName(driver);
+                        pool.initPool(listener);
+                        pool.registerMetrics(name);
+                        instances.put(name, pool); // We only publish the pool once it has been initialized, so a failure lets the next call try again
+                        result = pool;
+                    } catch (ClassNotFoundException ex) {
+                        pool.close();
+                        throw new InternalErrorException("ConnectionPool::getInstance -> Could not load driver: " + driver, ex);
+                    } catch (SQLException ex) {
+                        pool.close();
+                        throw new InternalErrorException("ConnectionPool::getInstance -> SQL problem.", ex);
+                    }
+                }
+            } finally {
+                instancesLock.unlock();
+            }
         }
-        
-        return instance;
+
+        return result;
+    }
+
+    /**
+     * This method returns the name of this pool.
+     *
+     * @return pool name
+     */
+    public String getName() {
+        return name;
     }
-    
+
     /**
-     * This method establishes a new connection with the database with the 
-     * parameters in the <b>lml-conn-settings</b> file.
+     * This method establishes a new connection with the database with the
+     * parameters of this pool in the <b>lml-conn-settings</b> file.
      * @return connection
      * @throws java.sql.SQLException
      */
-    protected static Connection openConnection() throws SQLException {        
+    protected Connection openConnection() throws SQLException {
         Connection result = null;
-        String url = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_URL);
-        String user = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_USER);
-        String password = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_PASSWORD);
+        String url = getSetting(CONNECTION_SETTINGS_URL, "");
+        String user = getSetting(CONNECTION_SETTINGS_USER, "");
+        String password = getSetting(CONNECTION_SETTINGS_PASSWORD, "");
         result = DriverManager.getConnection(url, user, password);
         return result;
     }
-    
+
     /**
-     * This method initialized the pool with as much connections as defined in the <b>lml-conn-settings</b> file.
-     * @throws java.sql.SQLException
+     * This method gathers a setting of this pool.
+     *
+     * @param key
+     * @param defaultValue
+     * @return setting value
+     */
+    private String getSetting(String key, String defaultValue) {
+        return LMLGlobalOperations.getConnectionSetting(name, key, defaultValue);
+    }
+
+    /**
+     * This method initializes the pool with <b>min.idle</b> connections (opened in parallel) 
+     * and schedules the housekeeping task.
+     * 
+     * @param listener progress listener (may be <b>null</b>)
+     * @throws java.sql.SQLException when any of the connections could not be opened
      */
-    protected static void initPool() throws SQLException {
+    protected void initPool(final IPoolWarmUpListener listener) throws SQLException {
+
+        final String warmUpQuery = getSetting(CONNECTION_SETTINGS_POOL_WARMUP_QUERY, "");
+        int parallelism = Math.min(minIdle, Integer.parseInt(getSetting(CONNECTION_SETTINGS_POOL_WARMUP_PARALLELISM,
+                String.valueOf(DEFAULT_POOL_WARMUP_PARALLELISM))));
         
-        for (int i=0; i < Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_POOL_SIZE)); i++) {
-            pool.put(openConnection(), AVAILABLE);
+        if (minIdle > 0) {
+            final AtomicInteger opened = new AtomicInteger(0);
+            ExecutorService warmUpExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread result = new Thread(task, "lml-pool-warmup-" + name);
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+            try {
+                List<Future<PooledConnection>> tasks = new ArrayList<Future<PooledConnection>>(minIdle);
+                for (int i = 0; i < minIdle; i++) {
+                    tasks.add(warmUpExecutor.submit(new Callable<PooledConnection>() {
+                        public PooledConnection call() throws SQLException {
+                            PooledConnection pooled = createConnection();
+                            if (pooled != null) {
+                                if (warmUpQuery.length() > 0) {
+                                    warmUp(pooled, warmUpQuery);
+                                }
+                                addIdleConnection(pooled);
+                                int count = opened.incrementAndGet();
+                                logger.log(Level.FINE, "ConnectionPool::initPool -> " + name + ": " + count + "/" + minIdle + " connections opened.");
+                                if (listener != null) {
+                                    listener.connectionOpened(name, count, minIdle);
+                                }
+                            }
+                            return pooled;
+                        }
+                    }));
+                }
+                for (Future<PooledConnection> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("ConnectionPool::initPool -> Interrupted while opening connections.", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof SQLException) {
+                    throw (SQLException) ex.getCause();
+                }
+                throw new SQLException("ConnectionPool::initPool -> Error while opening connections.", ex.getCause());
+            } finally {
+                warmUpExecutor.shutdownNow();
+            }
+            logger.log(Level.INFO, "ConnectionPool::initPool -> Pool " + name + " started with " + opened.get() + " connections.");
         }
-        
+
+        long period = Long.parseLong(getSetting(CONNECTION_SETTINGS_POOL_HOUSEKEEPING_PERIOD,
+                String.valueOf(DEFAULT_POOL_HOUSEKEEPING_PERIOD)));
+        housekeeper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                houseKeep();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        if (leakDetectionThreshold > 0 || leakReclaimThreshold > 0) {
+            long leakPeriod = Math.max(1000, Math.min(positiveOrMax(leakDetectionThreshold), positiveOrMax(leakReclaimThreshold)) / 2);
+            housekeeper.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    detectLeaks();
+                }
+            }, leakPeriod, leakPeriod, TimeUnit.MILLISECONDS);
+        }
+
     }
-    
+
     /**
-     * This method looks for an available connection in the pool, marks it as busy and the returns it.
-     * 
+     * This method takes an available connection from the pool and marks it as busy.
+     * When every connection is busy the pool grows up to its maximum size; once it has
+     * been reached we wait until one is released or the acquire timeout
+     * (<b>lml.connection.settings.pool.acquire.timeout</b> milliseconds) expires.
+     * Expired or broken connections found on the way are closed and replaced.
+     *
      * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException when no connection could be obtained in time
      */
-    public Connection getConnection() {
-        // TODO Devuelve null cuando no quedan conexiones disponibles. El pool deberia crecer de forma temporal.
-        Connection result = null;
-        
-        for (Connection conn : pool.keySet()) {
-            if (pool.get(conn).equals(AVAILABLE)) {
-                pool.remove(conn);
-                pool.put(conn, BUSY);
-                result = conn;
-                break;
+    public Connection getConnection() throws InternalErrorException {
+        return getConnection(null);
+    }
+
+    /**
+     * This method takes an available connection from the pool and marks it as busy
+     * (see <code>getConnection()</code>), recording who borrowed it for leak detection.
+     *
+     * @param borrower description of the borrower (usually the action class)
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException when no connection could be obtained in time
+     */
+    public Connection getConnection(String borrower) throws InternalErrorException {
+        return getConnection(borrower, Priority.NORMAL);
+    }
+
+    /**
+     * This method takes an available connection from the pool and marks it as busy
+     * (see <code>getConnection()</code>). While every connection is busy, callers with a higher
+     * priority are served first.
+     *
+     * @param borrower description of the borrower (usually the action class)
+     * @param priority
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException when no connection could be obtained in time
+     */
+    public Connection getConnection(String borrower, Priority priority) throws InternalErrorException {
+        return getConnection(borrower, priority, 0);
+    }
+
+    /**
+     * This method takes an available connection from the pool and marks it as busy
+     * (see <code>getConnection()</code>), waiting no longer than the acquire timeout
+     * or the given deadline, whichever comes first.
+     *
+     * @param borrower description of the borrower (usually the action class)
+     * @param priority
+     * @param deadline (<code>System.nanoTime()</code> based, 0 means none)
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException when no connection could be obtained in time
+     *          or the pool is closed
+     */
+    public Connection getConnection(String borrower, Priority priority, long deadline) throws InternalErrorException {
+
+        PooledConnection result = null;
+        long start = System.nanoTime();
+        long acquireDeadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+        if (deadline == 0 || acquireDeadline - deadline < 0) {
+            deadline = acquireDeadline;
+        }
+
+        try {
+            while (result == null) {
+                if (closed) {
+                    throw new InternalErrorException("ConnectionPool::getConnection -> The pool is closed.");
+                }
+                if (availableConnections.tryAcquire()) {
+                    result = idleConnections.pollFirst();
+                } else if ((result = createConnection()) == null) {
+                    result = awaitConnection(priority, deadline);
+                }
+                if (isExpired(result) || !isValid(result, validationInterval)) {
+                    destroyConnection(result);
+                    result = null;
+                    // Broken connections must not keep us opening new ones past the deadline
+                    if (deadline - System.nanoTime() <= 0) {
+                        throw new InternalErrorException("ConnectionPool::getConnection -> No valid connection could be " +
+                                "obtained in time (acquire timeout: " + acquireTimeout + " milliseconds).");
+                    }
+                }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("ConnectionPool::getConnection -> Interrupted while waiting for a connection.", ex);
+        } catch (SQLException ex) {
+            throw new InternalErrorException("ConnectionPool::getConnection -> SQL error while growing the pool.", ex);
         }
-        
-        return result;
+
+        boolean tracing = leakDetectionThreshold > 0 || leakReclaimThreshold > 0;
+        result.markBorrowed(borrower, tracing ? new Throwable("Connection borrowed here") : null);
+        busyConnections.put(result.getHandle(), result);
+        metrics.getAcquireWaitHistogram().record(result.getBorrowNanoTime() - start);
+
+        return result.getHandle();
     }
-    
+
     /**
      * This method marks the connection as available again.
-     * We don't close connections.
-     * 
+     * Connections are only closed when they have exceeded their maximum lifetime
+     * or the action using them left them closed.
+     *
      * @param connection
      */
     public void releaseConnection(Connection connection) {
-        
-        pool.remove(connection);
-        pool.put(connection, AVAILABLE);
-        
+
+        PooledConnection pooled = busyConnections.remove(connection);
+        if (pooled == null) {
+            logger.log(Level.WARNING, "ConnectionPool::releaseConnection -> Tried to release a connection that was not borrowed " +
+                    "from this pool (or that has been reclaimed as a leak).");
+            return;
+        }
+
+        pooled.touch();
+        metrics.getUsageHistogram().record(System.nanoTime() - pooled.getBorrowNanoTime());
+        if (pooled.isLeakReported()) {
+            logger.log(Level.INFO, "ConnectionPool::releaseConnection -> Connection previously reported as a leak has been released after " +
+                    (pooled.getLastAccessTime() - pooled.getBorrowTime()) + " ms (" + pooled.getBorrower() + ").");
+        }
+        if (isExpired(pooled) || isClosed(pooled)) {
+            destroyConnection(pooled);
+        } else {
+            addIdleConnection(pooled);
+        }
+
+    }
+
+    /**
+     * This method returns how many times a prepared statement has been reused from
+     * the connections' statement caches.
+     *
+     * @return statement cache hits
+     */
+    public long getStatementCacheHits() {
+        return metrics.getStatementCacheHits();
+    }
+
+    /**
+     * This method returns how many times a prepared statement was not found in
+     * the connections' statement caches and had to be prepared.
+     *
+     * @return statement cache misses
+     */
+    public long getStatementCacheMisses() {
+        return metrics.getStatementCacheMisses();
+    }
+
+    /**
+     * This method returns the metrics of this pool.
+     *
+     * @return pool metrics
+     */
+    public ConnectionPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * This method returns how many connections are currently borrowed.
+     *
+     * @return active connections
+     */
+    public int getActiveConnections() {
+        return busyConnections.size();
+    }
+
+    /**
+     * This method returns how many connections are currently available.
+     *
+     * @return idle connections
+     */
+    public int getIdleConnections() {
+        return availableConnections.availablePermits();
+    }
+
+    /**
+     * This method returns how many connections are currently open (idle or borrowed).
+     *
+     * @return total connections
+     */
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    /**
+     * This method returns an estimation of the number of threads waiting for a connection.
+     *
+     * @return pending threads
+     */
+    public int getPendingThreads() {
+        return pendingThreads.get();
+    }
+
+    /**
+     * This method stops the housekeeping task and closes every idle connection.
+     * Busy connections are closed when they are released (every connection still
+     * in use is seen as expired from now on).
+     */
+    public void close() {
+
+        closed = true;
+        instances.remove(name, this);
+        housekeeper.shutdownNow();
+        unregisterMetrics();
+        while (availableConnections.tryAcquire()) {
+            destroyConnection(idleConnections.pollFirst());
+        }
+
+    }
+
+    /**
+     * This method registers the metrics of this pool in the platform MBean server.
+     *
+     * @param poolName
+     */
+    private void registerMetrics(String poolName) {
+        try {
+            metricsName = new ObjectName("org.paquitosoft.lml:type=ConnectionPool,name=" + ObjectName.quote(poolName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (JMException ex) {
+            metricsName = null;
+            logger.log(Level.WARNING, "ConnectionPool::registerMetrics -> Could not register pool metrics in JMX.", ex);
+        }
+    }
+
+    /**
+     * This method removes the metrics of this pool from the platform MBean server.
+     */
+    private void unregisterMetrics() {
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException ex) {
+                logger.log(Level.FINE, "ConnectionPool::unregisterMetrics -> Could not unregister pool metrics from JMX.", ex);
+            }
+            metricsName = null;
+        }
+    }
+
+    /**
+     * This method opens a new connection when the pool has not reached its maximum size.
+     *
+     * @return new connection or <b>null</b> if the pool is full
+     * @throws java.sql.SQLException
+     */
+    private PooledConnection createConnection() throws SQLException {
+
+        int current;
+        do {
+            current = totalConnections.get();
+            if (current >= maxSize) {
+                return null;
+            }
+        } while (!totalConnections.compareAndSet(current, current + 1));
+
+        try {
+            Connection connection = openConnection();
+            metrics.getConnectionsCreatedCounter().incrementAndGet();
+            if (statementCacheSize > 0) {
+                return new PooledConnection(connection,
+                        new StatementCache(connection, statementCacheSize,
+                            metrics.getStatementCacheHitsCounter(), metrics.getStatementCacheMissesCounter()));
+            }
+            return new PooledConnection(connection);
+        } catch (SQLException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
     }
-    
+
+    /**
+     * This method queues the calling thread until a connection is handed to it.
+     *
+     * @param priority
+     * @param deadline (<code>System.nanoTime()</code> based)
+     * @return connection handed to this thread
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException when no connection was handed in time
+     * @throws java.lang.InterruptedException
+     */
+    private PooledConnection awaitConnection(Priority priority, long deadline) throws InternalErrorException, InterruptedException {
+
+        Queue<Waiter> queue = waiters.get(priority.ordinal());
+        Waiter waiter = new Waiter();
+        pendingThreads.incrementAndGet();
+        queue.offer(waiter);
+
+        try {
+            // A connection may have been released before we were queued, when there was nobody to hand it to
+            if (availableConnections.tryAcquire()) {
+                PooledConnection idle = idleConnections.pollFirst();
+                if (waiter.cancel()) {
+                    queue.remove(waiter);
+                    return idle;
+                }
+                addIdleConnection(idle);
+                return waiter.getConnection();
+            }
+
+            while (true) {
+                PooledConnection handed = waiter.getConnection();
+                if (handed != null) {
+                    return handed;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 && waiter.cancel()) {
+                    queue.remove(waiter);
+                    metrics.getAcquireTimeoutsCounter().incrementAndGet();
+                    throw new InternalErrorException("ConnectionPool::getConnection -> No connection became available in time " +
+                            "(acquire timeout: " + acquireTimeout + " milliseconds).");
+                }
+
+                LockSupport.parkNanos(this, remaining);
+
+                if (Thread.interrupted()) {
+                    if (waiter.cancel()) {
+                        queue.remove(waiter);
+                        throw new InterruptedException();
+                    }
+                    // The connection arrived anyway: keep it and let the caller see the interruption later
+                    Thread.currentThread().interrupt();
+                    return waiter.getConnection();
+                }
+            }
+        } finally {
+            pendingThreads.decrementAndGet();
+        }
+    }
+
+    /**
+     * This method gives a connection to the longest waiter with the highest priority
+     * (or to a starving one) or, when nobody is waiting, back to the head of the idle deque.
+     *
+     * @param pooled
+     */
+    private void addIdleConnection(PooledConnection pooled) {
+        addIdleConnection(pooled, true);
+    }
+
+    /**
+     * This method gives a connection to the longest waiter with the highest priority
+     * (or to a starving one) or, when nobody is waiting, back to the idle deque.
+     *
+     * @param pooled
+     * @param mostRecentlyUsed whether it goes to the head of the deque (or to its tail)
+     */
+    private void addIdleConnection(PooledConnection pooled, boolean mostRecentlyUsed) {
+        if (closed) {
+            destroyConnection(pooled);
+            return;
+        }
+
+        // Starvation guard: the longest waiter goes first, whatever its priority, once it has waited too long
+        if (starvationThreshold > 0) {
+            Queue<Waiter> starving = null;
+            long oldest = System.nanoTime() - starvationThreshold;
+            for (Queue<Waiter> queue : waiters) {
+                Waiter head = queue.peek();
+                if (head != null && head.getQueueTime() - oldest < 0) {
+                    oldest = head.getQueueTime();
+                    starving = queue;
+                }
+            }
+            if (starving != null && handOff(starving, pooled)) {
+                return;
+            }
+        }
+
+        for (Queue<Waiter> queue : waiters) {
+            if (handOff(queue, pooled)) {
+                return;
+            }
+        }
+
+        if (mostRecentlyUsed) {
+            idleConnections.offerFirst(pooled);
+        } else {
+            idleConnections.offerLast(pooled);
+        }
+        availableConnections.release();
+
+        // A borrower may have been queued (and missed the permit) after we looked for waiters: hand it over
+        if (hasWaiters() && availableConnections.tryAcquire()) {
+            addIdleConnection(idleConnections.pollFirst());
+        }
+    }
+
+    /**
+     * This method gives a connection to the longest waiter of a queue.
+     *
+     * @param queue
+     * @param pooled
+     * @return <b>false</b> when nobody in the queue was waiting
+     */
+    private static boolean handOff(Queue<Waiter> queue, PooledConnection pooled) {
+        Waiter waiter;
+        while ((waiter = queue.poll()) != null) {
+            if (waiter.handOff(pooled)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method checks whether any thread is waiting for a connection.
+     *
+     * @return <b>true</b> when there are waiters
+     */
+    private boolean hasWaiters() {
+        for (Queue<Waiter> queue : waiters) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method closes a connection and, if there are threads waiting, asks the
+     * housekeeper to open a new one in its place.
+     *
+     * @param pooled
+     */
+    private void destroyConnection(PooledConnection pooled) {
+
+        totalConnections.decrementAndGet();
+        metrics.getConnectionsDestroyedCounter().incrementAndGet();
+        pooled.close();
+
+        if (hasWaiters() && !housekeeper.isShutdown()) {
+            housekeeper.execute(new Runnable() {
+                public void run() {
+                    fillPool(1);
+                }
+            });
+        }
+
+    }
+
+    /**
+     * This method checks whether a connection has exceeded its maximum lifetime
+     * (or the pool has been closed).
+     *
+     * @param pooled
+     * @return <b>true</b> when the connection must be closed
+     */
+    private boolean isExpired(PooledConnection pooled) {
+        return closed || (maxLifetime > 0 && System.currentTimeMillis() - pooled.getCreationTime() > maxLifetime);
+    }
+
+    /**
+     * This method checks a connection against the database when it has not been
+     * validated during the last <i>interval</i> milliseconds.
+     *
+     * @param pooled
+     * @param interval
+     * @return <b>false</b> when the connection is broken
+     */
+    private boolean isValid(PooledConnection pooled, long interval) {
+
+        if (System.currentTimeMillis() - pooled.getLastValidationTime() < interval) {
+            return true;
+        }
+
+        boolean result = false;
+        try {
+            result = pooled.getConnection().isValid(validationTimeout);
+        } catch (SQLException ex) {
+            logger.log(Level.FINE, "ConnectionPool::isValid -> Error while validating a connection.", ex);
+        }
+
+        if (result) {
+            pooled.markValidated();
+        } else {
+            logger.log(Level.WARNING, "ConnectionPool::isValid -> Broken connection found. It will be replaced.");
+        }
+
+        return result;
+    }
+
+    /**
+     * This method checks whether a connection has been closed while it was in use.
+     *
+     * @param pooled
+     * @return <b>true</b> when the connection is closed
+     */
+    private boolean isClosed(PooledConnection pooled) {
+        try {
+            return pooled.getConnection().isClosed();
+        } catch (SQLException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * This method is periodically executed by the housekeeper. It closes the least recently
+     * used connections while they are expired or idle for too long (keeping <b>min.idle</b> of them),
+     * validates the remaining idle ones and then refills the pool up to <b>min.idle</b> idle connections.
+     */
+    private void houseKeep() {
+
+        long now = System.currentTimeMillis();
+        while (availableConnections.tryAcquire()) {
+            PooledConnection pooled = idleConnections.pollLast();
+            if (isExpired(pooled) ||
+                    (idleTimeout > 0 && now - pooled.getLastAccessTime() > idleTimeout && totalConnections.get() > minIdle)) {
+                destroyConnection(pooled);
+            } else {
+                // This is the least recently used one, so the rest have not been idle for so long
+                addIdleConnection(pooled, false);
+                break;
+            }
+        }
+
+        if (keepaliveInterval > 0) {
+            keepAlive();
+        }
+
+        fillPool(minIdle - availableConnections.availablePermits());
+
+    }
+
+    /**
+     * This method runs the warm-up query on a brand new connection. Using the connection 
+     * handle leaves the statement ready in its cache.
+     *
+     * @param pooled
+     * @param warmUpQuery
+     * @throws java.sql.SQLException
+     */
+    private void warmUp(PooledConnection pooled, String warmUpQuery) throws SQLException {
+        PreparedStatement stm = null;
+        try {
+            stm = pooled.getHandle().prepareStatement(warmUpQuery);
+            stm.execute();
+            pooled.markValidated();
+        } catch (SQLException ex) {
+            destroyConnection(pooled);
+            throw ex;
+        } finally {
+            if (stm != null) {
+                stm.close();
+            }
+        }
+    }
+
+    /**
+     * This method is periodically executed by the housekeeper when leak detection is enabled.
+     * It logs every connection held for longer than the detection threshold (once per borrow)
+     * and reclaims those held for longer than the reclaim threshold.
+     */
+    private void detectLeaks() {
+
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : busyConnections.values()) {
+            long held = now - pooled.getBorrowTime();
+            if (leakReclaimThreshold > 0 && held > leakReclaimThreshold) {
+                if (busyConnections.remove(pooled.getHandle()) != null) {
+                    logger.log(Level.SEVERE, "ConnectionPool::detectLeaks -> Reclaiming connection held for " + held + " ms by " +
+                            pooled.getBorrower() + ".", pooled.getBorrowTrace());
+                    destroyConnection(pooled);
+                }
+            } else if (leakDetectionThreshold > 0 && held > leakDetectionThreshold && !pooled.isLeakReported()) {
+                pooled.setLeakReported(true);
+                logger.log(Level.WARNING, "ConnectionPool::detectLeaks -> Possible connection leak: held for " + held + " ms by " +
+                        pooled.getBorrower() + ".", pooled.getBorrowTrace());
+            }
+        }
+
+    }
+
+    private static long positiveOrMax(long value) {
+        return (value > 0) ? value : Long.MAX_VALUE;
+    }
+
+    /**
+     * This method goes once through the idle connections (from the least recently used one)
+     * closing those that are expired or broken. The rest are given back keeping their order.
+     */
+    private void keepAlive() {
+
+        int idle = availableConnections.availablePermits();
+        for (int i = 0; i < idle && availableConnections.tryAcquire(); i++) {
+            PooledConnection pooled = idleConnections.pollLast();
+            if (isExpired(pooled) || !isValid(pooled, keepaliveInterval)) {
+                destroyConnection(pooled);
+            } else {
+                addIdleConnection(pooled);
+            }
+        }
+
+    }
+
+    /**
+     * This method opens up to <i>count</i> new idle connections without exceeding the maximum size.
+     *
+     * @param count
+     */
+    private void fillPool(int count) {
+        try {
+            PooledConnection pooled = null;
+            for (int i = 0; i < count && (pooled = createConnection()) != null; i++) {
+                addIdleConnection(pooled);
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.WARNING, "ConnectionPool::fillPool -> Could not open a new connection.", ex);
+        }
+    }
+
+    /**
+     * This class represents a thread waiting for a connection.
+     * Its slot is set only once: either to the connection handed to it or to
+     * <code>CANCELLED</code> when the thread gives up.
+     */
+    private static final class Waiter {
+
+        private final Thread thread = Thread.currentThread();
+
+        private final long queueTime = System.nanoTime();
+
+        private final AtomicReference<Object> slot = new AtomicReference<Object>();
+
+        /**
+         * This method hands a connection to the waiting thread and wakes it up.
+         *
+         * @param pooled
+         * @return <b>false</b> if the thread had already given up
+         */
+        boolean handOff(PooledConnection pooled) {
+            if (slot.compareAndSet(null, pooled)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * This method marks the waiter as cancelled.
+         *
+         * @return <b>false</b> if a connection had already been handed to it
+         */
+        boolean cancel() {
+            return slot.compareAndSet(null, CANCELLED);
+        }
+
+        long getQueueTime() {
+            return queueTime;
+        }
+
+        PooledConnection getConnection() {
+            Object value = slot.get();
+            return (value == CANCELLED) ? null : (PooledConnection) value;
+        }
+
+    }
+
 }
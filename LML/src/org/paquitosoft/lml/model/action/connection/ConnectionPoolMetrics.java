@@ -0,0 +1,155 @@
+package org.paquitosoft.lml.model.action.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.paquitosoft.lml.util.LatencyHistogram;
+
+/**
+ *  This class gathers the metrics of a connection pool: connection counts, how long
+ *  callers wait to get a connection and how long they keep it.
+ *  It can be queried directly (<code>ConnectionPool.getMetrics()</code>) or through JMX,
+ *  where every pool registers it as <i>org.paquitosoft.lml:type=ConnectionPool,name=&lt;pool name&gt;</i>.
+ *
+ * @author paquitosoft
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolMetricsMBean {
+
+    private final ConnectionPool pool;
+
+    private final AtomicLong connectionsCreated = new AtomicLong(0);
+
+    private final AtomicLong connectionsDestroyed = new AtomicLong(0);
+
+    private final AtomicLong acquireTimeouts = new AtomicLong(0);
+
+    private final AtomicLong statementCacheHits = new AtomicLong(0);
+
+    private final AtomicLong statementCacheMisses = new AtomicLong(0);
+
+    private final LatencyHistogram acquireWait = new LatencyHistogram();
+
+    private final LatencyHistogram usage = new LatencyHistogram();
+
+    ConnectionPoolMetrics(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public int getActiveConnections() {
+        return pool.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        return pool.getIdleConnections();
+    }
+
+    public int getTotalConnections() {
+        return pool.getTotalConnections();
+    }
+
+    public int getPendingThreads() {
+        return pool.getPendingThreads();
+    }
+
+    public long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    public long getConnectionsDestroyed() {
+        return connectionsDestroyed.get();
+    }
+
+    public long getAcquireTimeouts() {
+        return acquireTimeouts.get();
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    public double getAcquireWaitMean() {
+        return acquireWait.getMean();
+    }
+
+    public double getAcquireWait50thPercentile() {
+        return acquireWait.getPercentile(50);
+    }
+
+    public double getAcquireWait95thPercentile() {
+        return acquireWait.getPercentile(95);
+    }
+
+    public double getAcquireWait99thPercentile() {
+        return acquireWait.getPercentile(99);
+    }
+
+    public double getAcquireWaitMax() {
+        return acquireWait.getMax();
+    }
+
+    public double getUsageMean() {
+        return usage.getMean();
+    }
+
+    public double getUsage50thPercentile() {
+        return usage.getPercentile(50);
+    }
+
+    public double getUsage95thPercentile() {
+        return usage.getPercentile(95);
+    }
+
+    public double getUsage99thPercentile() {
+        return usage.getPercentile(99);
+    }
+
+    public double getUsageMax() {
+        return usage.getMax();
+    }
+
+    public void resetHistograms() {
+        acquireWait.reset();
+        usage.reset();
+    }
+
+    /**
+     * This method returns the histogram of the time callers wait for a connection.
+     *
+     * @return acquire wait histogram
+     */
+    public LatencyHistogram getAcquireWaitHistogram() {
+        return acquireWait;
+    }
+
+    /**
+     * This method returns the histogram of the time callers keep a connection.
+     *
+     * @return usage histogram
+     */
+    public LatencyHistogram getUsageHistogram() {
+        return usage;
+    }
+
+    AtomicLong getConnectionsCreatedCounter() {
+        return connectionsCreated;
+    }
+
+    AtomicLong getConnectionsDestroyedCounter() {
+        return connectionsDestroyed;
+    }
+
+    AtomicLong getAcquireTimeoutsCounter() {
+        return acquireTimeouts;
+    }
+
+    AtomicLong getStatementCacheHitsCounter() {
+        return statementCacheHits;
+    }
+
+    AtomicLong getStatementCacheMissesCounter() {
+        return statementCacheMisses;
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.paquitosoft.lml.model.action.connection;
+
+/**
+ *  This interface exposes the connection pool metrics through JMX.
+ *  Durations are expressed in milliseconds.
+ *
+ * @author paquitosoft
+ */
+public interface ConnectionPoolMetricsMBean {
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    int getPendingThreads();
+
+    long getConnectionsCreated();
+
+    long getConnectionsDestroyed();
+
+    long getAcquireTimeouts();
+
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+
+    double getAcquireWaitMean();
+
+    double getAcquireWait50thPercentile();
+
+    double getAcquireWait95thPercentile();
+
+    double getAcquireWait99thPercentile();
+
+    double getAcquireWaitMax();
+
+    double getUsageMean();
+
+    double getUsage50thPercentile();
+
+    double getUsage95thPercentile();
+
+    double getUsage99thPercentile();
+
+    double getUsageMax();
+
+    /**
+     * This method discards the recorded wait and usage durations.
+     */
+    void resetHistograms();
+
+}
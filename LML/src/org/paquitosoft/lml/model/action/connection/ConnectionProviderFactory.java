@@ -0,0 +1,72 @@
+package org.paquitosoft.lml.model.action.connection;
+
+import java.util.concurrent.ConcurrentHashMap;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+import org.paquitosoft.lml.util.LMLGlobalOperations;
+
+/**
+ *  This class is the factory for the connection providers used by the library.
+ *  Every provider has a name: the <b>default</b> one is configured with the 
+ *  <i>lml.connection.settings.*</i> keys and the named ones with 
+ *  <i>lml.connection.settings.&lt;name&gt;.*</i> keys.
+ *  A provider is a server data source when its <i>datasource.jndi</i> key is set, 
+ *  and a library connection pool otherwise.
+ * 
+ * @author paquitosoft
+ */
+public class ConnectionProviderFactory {
+
+    private static ConcurrentHashMap<String,IConnectionProvider> providers = new ConcurrentHashMap<String,IConnectionProvider>();
+    
+    /**
+     * This method returns the default connection provider.
+     * 
+     * @return connection provider
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static IConnectionProvider getConnectionProvider() throws InternalErrorException {
+        return getConnectionProvider(DEFAULT_CONNECTION_PROVIDER);
+    }
+    
+    /**
+     * This method returns the connection provider with the given name, creating it 
+     * the first time it is requested.
+     * 
+     * @param name
+     * @return connection provider
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public static IConnectionProvider getConnectionProvider(String name) throws InternalErrorException {
+        
+        IConnectionProvider result = providers.get(name);
+        
+        if (result == null) {
+            // The JNDI name is not inherited from the default provider: a named provider without it is a pool
+            String jndiName = LMLGlobalOperations.getConnectionSetting(
+                    LMLGlobalOperations.getConnectionSettingKey(name, CONNECTION_SETTING_DATASOURCE_JNDI), "");
+            if (jndiName.length() > 0) {
+                try {
+                    Context ctx = new InitialContext();
+                    result = new DataSourceConnectionProvider((DataSource) ctx.lookup(jndiName));
+                } catch (NamingException ex) {
+                    throw new InternalErrorException("ConnectionProviderFactory::getConnectionProvider -> Naming error while getting dataSource: " + 
+                            jndiName, ex);
+                }
+            } else {
+                result = ConnectionPool.getInstance(name);
+            }
+            IConnectionProvider previous = providers.putIfAbsent(name, result);
+            if (previous != null) {
+                result = previous;
+            }
+        }
+        
+        return result;
+    }
+    
+}
@@ -0,0 +1,78 @@
+package org.paquitosoft.lml.model.action.connection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This class gets connections from a data source provided by the server 
+ *  (connections are pooled by the server itself).
+ * 
+ * @author paquitosoft
+ */
+public class DataSourceConnectionProvider implements IConnectionProvider {
+
+    private DataSource dataSource;
+    
+    public DataSourceConnectionProvider(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+    
+    /**
+     * This method gets a connection from the data source.
+     * 
+     * @param borrower
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public Connection getConnection(String borrower) throws InternalErrorException {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException ex) {
+            throw new InternalErrorException("DataSourceConnectionProvider::getConnection -> SQL error while getting dataSource connection", ex);
+        }
+    }
+
+    /**
+     * This method gets a connection from the data source. The data source has its own
+     * queue, so the priority is ignored.
+     *
+     * @param borrower
+     * @param priority
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public Connection getConnection(String borrower, Priority priority) throws InternalErrorException {
+        return getConnection(borrower);
+    }
+
+    /**
+     * This method gets a connection from the data source. Data sources do not take 
+     * a timeout per request, so the deadline is ignored (their login timeout applies).
+     *
+     * @param borrower
+     * @param priority
+     * @param deadline
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public Connection getConnection(String borrower, Priority priority, long deadline) throws InternalErrorException {
+        return getConnection(borrower);
+    }
+
+    /**
+     * This method gives the connection back to the data source by closing it.
+     * 
+     * @param connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public void releaseConnection(Connection connection) throws InternalErrorException {
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            throw new InternalErrorException("DataSourceConnectionProvider::releaseConnection -> SQL error while closing dataSource connection", ex);
+        }
+    }
+
+}
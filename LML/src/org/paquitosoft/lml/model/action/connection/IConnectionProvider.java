@@ -0,0 +1,53 @@
+package org.paquitosoft.lml.model.action.connection;
+
+import java.sql.Connection;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This interface dictates the way actions get database connections and give them back.
+ * 
+ * @author paquitosoft
+ */
+public interface IConnectionProvider {
+
+    /**
+     * This method gets a database connection.
+     * 
+     * @param borrower description of the borrower (usually the action class)
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    Connection getConnection(String borrower) throws InternalErrorException;
+    
+    /**
+     * This method gets a database connection. When connections are scarce, providers 
+     * should serve the callers with the highest priority first.
+     * 
+     * @param borrower description of the borrower (usually the action class)
+     * @param priority
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    Connection getConnection(String borrower, Priority priority) throws InternalErrorException;
+    
+    /**
+     * This method gets a database connection, giving up when it cannot be obtained 
+     * before the deadline (or the own timeout of the provider, whichever comes first).
+     * 
+     * @param borrower description of the borrower (usually the action class)
+     * @param priority
+     * @param deadline (<code>System.nanoTime()</code> based, 0 means none)
+     * @return connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    Connection getConnection(String borrower, Priority priority, long deadline) throws InternalErrorException;
+    
+    /**
+     * This method gives back a connection obtained from this provider.
+     * 
+     * @param connection
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    void releaseConnection(Connection connection) throws InternalErrorException;
+    
+}
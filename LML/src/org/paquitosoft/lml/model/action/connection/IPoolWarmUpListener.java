@@ -0,0 +1,21 @@
+package org.paquitosoft.lml.model.action.connection;
+
+/**
+ *  This interface is used to follow the progress of a connection pool start.
+ * 
+ * @author paquitosoft
+ */
+public interface IPoolWarmUpListener {
+
+    /**
+     * This method is called every time a connection of the pool has been opened 
+     * (and warmed up when a warm-up query is configured).
+     * It may be called concurrently from the warm-up threads.
+     * 
+     * @param poolName
+     * @param opened connections opened so far
+     * @param total connections the pool starts with
+     */
+    void connectionOpened(String poolName, int opened, int total);
+    
+}
@@ -0,0 +1,188 @@
+package org.paquitosoft.lml.model.action.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *  This class wraps a physical connection kept by the pool together with
+ *  the information the pool needs to manage its life cycle.
+ *  <br/>
+ *  When statement caching is enabled, the pool hands out a proxy of the physical
+ *  connection (see <code>getHandle()</code>) whose prepared statements come from
+ *  this connection's <code>StatementCache</code>.
+ *
+ * @author paquitosoft
+ */
+class PooledConnection {
+
+    private static Logger logger = Logger.getLogger(PooledConnection.class.getName());
+
+    private final Connection connection;
+
+    private final Connection handle;
+
+    private final StatementCache statementCache;
+
+    private final long creationTime;
+
+    private volatile long lastAccessTime;
+
+    private volatile long lastValidationTime;
+
+    private volatile long borrowTime;
+
+    private volatile long borrowNanoTime;
+
+    private volatile String borrower;
+
+    private volatile Throwable borrowTrace;
+
+    private volatile boolean leakReported;
+
+    PooledConnection(Connection connection) {
+        this(connection, null);
+    }
+
+    PooledConnection(Connection connection, StatementCache statementCache) {
+        this.connection = connection;
+        this.statementCache = statementCache;
+        this.handle = (statementCache == null) ? connection :
+            (Connection) Proxy.newProxyInstance(PooledConnection.class.getClassLoader(),
+                new Class[] {Connection.class}, new StatementCachingHandler());
+        this.creationTime = System.currentTimeMillis();
+        this.lastAccessTime = creationTime;
+        this.lastValidationTime = creationTime;
+    }
+
+    /**
+     * This method returns the physical connection.
+     *
+     * @return physical connection
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * This method returns the connection the pool hands out to its users.
+     *
+     * @return connection proxy (or the physical connection when statements are not cached)
+     */
+    Connection getHandle() {
+        return handle;
+    }
+
+    long getCreationTime() {
+        return creationTime;
+    }
+
+    long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    long getLastValidationTime() {
+        return lastValidationTime;
+    }
+
+    /**
+     * This method records that the connection has just been checked against the database.
+     */
+    void markValidated() {
+        lastValidationTime = System.currentTimeMillis();
+    }
+
+    long getBorrowTime() {
+        return borrowTime;
+    }
+
+    long getBorrowNanoTime() {
+        return borrowNanoTime;
+    }
+
+    String getBorrower() {
+        return borrower;
+    }
+
+    Throwable getBorrowTrace() {
+        return borrowTrace;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void setLeakReported(boolean leakReported) {
+        this.leakReported = leakReported;
+    }
+
+    /**
+     * This method records who has just borrowed the connection.
+     *
+     * @param borrower description of the borrower (usually the action class)
+     * @param borrowTrace stack trace of the borrow (<b>null</b> when leak detection is disabled)
+     */
+    void markBorrowed(String borrower, Throwable borrowTrace) {
+        this.borrowTime = System.currentTimeMillis();
+        this.borrowNanoTime = System.nanoTime();
+        this.lastAccessTime = borrowTime;
+        this.borrower = borrower;
+        this.borrowTrace = borrowTrace;
+        this.leakReported = false;
+    }
+
+    /**
+     * This method records that the connection has just been borrowed or released.
+     */
+    void touch() {
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    /**
+     * This method closes the cached statements and the physical connection.
+     */
+    void close() {
+        if (statementCache != null) {
+            statementCache.close();
+        }
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            logger.log(Level.FINE, "PooledConnection::close -> Error while closing a connection.", ex);
+        }
+    }
+
+    /**
+     * This handler takes prepared statements from the statement cache and delegates
+     * everything else to the physical connection.
+     */
+    private final class StatementCachingHandler implements InvocationHandler {
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+            if ("prepareStatement".equals(name) && args.length == 1) {
+                return statementCache.prepareStatement((String) args[0], null);
+            } else if ("prepareStatement".equals(name) && args.length == 2 && args[1] instanceof Integer) {
+                return statementCache.prepareStatement((String) args[0], (Integer) args[1]);
+            } else if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+    }
+
+}
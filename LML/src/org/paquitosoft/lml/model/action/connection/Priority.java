@@ -0,0 +1,29 @@
+package org.paquitosoft.lml.model.action.connection;
+
+/**
+ *  This enum represents how urgent it is for a caller to get a connection.
+ *  When every connection is busy, released connections are handed to the waiters
+ *  with the highest priority first, unless a lower priority one has been waiting
+ *  for longer than <b>lml.connection.settings.pool.starvation.threshold</b> milliseconds
+ *  (see <code>ConnectionPool</code>).
+ *
+ * @author paquitosoft
+ */
+public enum Priority {
+
+    /**
+     * Interactive work (online requests).
+     */
+    HIGH,
+
+    /**
+     * Default priority.
+     */
+    NORMAL,
+
+    /**
+     * Batch work (nightly jobs, write-behind queues...).
+     */
+    LOW
+
+}
@@ -0,0 +1,230 @@
+package org.paquitosoft.lml.model.action.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *  This class keeps the prepared statements of a pooled connection so they can be
+ *  reused instead of being parsed again by the driver and the database.
+ *  Statements are keyed by their SQL text and generated keys flag and the least
+ *  recently used one is closed when the cache is full.
+ *  <br/>
+ *  Statements handed out by this cache are proxies: closing them gives them back
+ *  to the cache. While a statement is in use it is not in the cache, so preparing
+ *  the same query again (nested actions) opens a new one.
+ *  Settings changed by a user (query timeout, fetch direction...) are reset when the
+ *  statement is given back, so they do not leak to the next user.
+ *  <br/>
+ *  A pooled connection is only used by one thread at a time, so this class is not synchronized.
+ *
+ * @author paquitosoft
+ */
+class StatementCache {
+
+    private static Logger logger = Logger.getLogger(StatementCache.class.getName());
+
+    private final Connection connection;
+
+    private final LinkedHashMap<Key,PreparedStatement> statements;
+
+    private final AtomicLong hits;
+
+    private final AtomicLong misses;
+
+    /**
+     * Constructor.
+     *
+     * @param connection physical connection the statements belong to
+     * @param maxSize maximum number of statements kept
+     * @param hits counter to be increased every time a statement is reused
+     * @param misses counter to be increased every time a statement must be prepared
+     */
+    StatementCache(Connection connection, final int maxSize, AtomicLong hits, AtomicLong misses) {
+        this.connection = connection;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<Key,PreparedStatement>(maxSize, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key,PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * This method returns a prepared statement for the query, reusing a cached one when possible.
+     *
+     * @param sql
+     * @param autoGeneratedKeys <code>Statement.RETURN_GENERATED_KEYS</code> or <code>Statement.NO_GENERATED_KEYS</code>
+     *          (<b>null</b> when the caller did not ask for it)
+     * @return prepared statement
+     * @throws java.sql.SQLException
+     */
+    PreparedStatement prepareStatement(String sql, Integer autoGeneratedKeys) throws SQLException {
+
+        Key key = new Key(sql, autoGeneratedKeys);
+        PreparedStatement statement = statements.remove(key);
+
+        if (statement != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            statement = (autoGeneratedKeys == null) ? connection.prepareStatement(sql) :
+                connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class[] {PreparedStatement.class}, new CachedStatementHandler(key, statement));
+    }
+
+    /**
+     * This method closes every cached statement.
+     */
+    void close() {
+        List<PreparedStatement> cached = new ArrayList<PreparedStatement>(statements.values());
+        statements.clear();
+        for (PreparedStatement statement : cached) {
+            closeQuietly(statement);
+        }
+    }
+
+    /**
+     * This method gives a statement back to the cache once its user has closed it.
+     * If the same query was cached meanwhile, the statement is really closed.
+     *
+     * @param key
+     * @param statement
+     * @param modified whether its user changed any of its settings
+     * @param batched whether its user left rows added to a batch that was not executed
+     */
+    private void giveBack(Key key, PreparedStatement statement, boolean modified, boolean batched) {
+        if (statements.containsKey(key)) {
+            closeQuietly(statement);
+        } else {
+            try {
+                statement.clearParameters();
+                if (batched) {
+                    // Otherwise the next user would execute them again
+                    statement.clearBatch();
+                }
+                if (modified) {
+                    statement.setQueryTimeout(0);
+                    statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+                    statement.setFetchSize(0);
+                    statement.setMaxRows(0);
+                }
+                statements.put(key, statement);
+            } catch (SQLException ex) {
+                closeQuietly(statement);
+            }
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            logger.log(Level.FINE, "StatementCache::closeQuietly -> Error while closing a cached statement.", ex);
+        }
+    }
+
+    /**
+     * This class identifies a cached statement.
+     */
+    private static final class Key {
+
+        private final String sql;
+
+        private final int autoGeneratedKeys;
+
+        Key(String sql, Integer autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = (autoGeneratedKeys == null) ? -1 : autoGeneratedKeys;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+        }
+
+        public int hashCode() {
+            return 31 * sql.hashCode() + autoGeneratedKeys;
+        }
+
+    }
+
+    /**
+     * This handler gives the statement back to the cache instead of closing it.
+     */
+    private final class CachedStatementHandler implements InvocationHandler {
+
+        private final Key key;
+
+        private final PreparedStatement statement;
+
+        private boolean closed;
+
+        private boolean modified;
+
+        private boolean batched;
+
+        CachedStatementHandler(Key key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+            if ("close".equals(name) && args == null) {
+                if (!closed) {
+                    closed = true;
+                    giveBack(key, statement, modified, batched);
+                }
+                return null;
+            } else if ("isClosed".equals(name) && args == null) {
+                return closed || statement.isClosed();
+            } else if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && args == null) {
+                return System.identityHashCode(proxy);
+            } else if (closed && !"toString".equals(name)) {
+                throw new SQLException("StatementCache -> The statement has already been closed.");
+            } else if ("setQueryTimeout".equals(name) || "setFetchDirection".equals(name) ||
+                    "setFetchSize".equals(name) || "setMaxRows".equals(name)) {
+                modified = true;
+            } else if ("addBatch".equals(name)) {
+                batched = true;
+            } else if ("executeBatch".equals(name) || "clearBatch".equals(name)) {
+                batched = false;
+            }
+
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+    }
+
+}
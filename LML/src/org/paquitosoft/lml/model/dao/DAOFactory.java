@@ -19,6 +19,18 @@ public class DAOFactory {
         return new DefaultDAOImpl(connection);
     }
     
+    /**
+     *  This method is used to create a new instance of default dao for a connection 
+     *  taken from a named connection provider (its settings, like the dialect, are read for that provider).
+     * 
+     * @param connection
+     * @param providerName
+     * @return default dao
+     */
+    public final static IDefaultDAO getDefaultDAO(Connection connection, String providerName) {
+        return new DefaultDAOImpl(connection, providerName);
+    }
+    
     /**
      *  This method is used to create a new instance of identifier dao.
      * 
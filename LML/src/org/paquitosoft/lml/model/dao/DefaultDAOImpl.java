@@ -1,23 +1,33 @@
 package org.paquitosoft.lml.model.dao;
 
 import java.lang.reflect.Field;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.paquitosoft.lml.model.annotation.PersistentEntity;
 import org.paquitosoft.lml.model.annotation.PersistentAttribute;
 import org.paquitosoft.lml.model.exception.AutogeneratedKeysReturnNotSupportedException;
+import org.paquitosoft.lml.model.exception.BatchDuplicateInstanceException;
 import org.paquitosoft.lml.model.exception.DataNotFoundException;
 import org.paquitosoft.lml.model.exception.DuplicateInstanceException;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 import org.paquitosoft.lml.model.exception.ReflectionException;
+import org.paquitosoft.lml.model.util.Dialect;
 import org.paquitosoft.lml.model.util.ModelUtilities;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+import org.paquitosoft.lml.util.LMLGlobalOperations;
 
 /**
  *  This is the main DAO in the library. 
@@ -30,8 +40,17 @@ public class DefaultDAOImpl implements IDefaultDAO {
 
     Logger logger = Logger.getLogger(getClass().getName());
     
+    private static volatile Boolean readBeforeInsert;
+    
+    // Dialect of every named connection provider, so its metadata is only read once
+    private static ConcurrentHashMap<String,Dialect> dialects = new ConcurrentHashMap<String,Dialect>();
+    
      protected Connection conn;
      
+    private String providerName;
+     
+    private Dialect dialect;
+     
     /** 
      * Creates a new instance of DAOGeneric.
      */
@@ -39,9 +58,23 @@ public class DefaultDAOImpl implements IDefaultDAO {
             this.conn = con;
     }
     
+    /** 
+     * Creates a new instance of DAOGeneric for a connection taken from a named connection provider.
+     */
+    public DefaultDAOImpl(Connection con, String providerName) {
+            this.conn = con;
+            this.providerName = providerName;
+    }
+    
     /**
      * This method is intended to create a new record in the database.
      * It raises an exception when we try to insert a record with an already used identifier.
+     * <br/>
+     * By default, entities with an identifier are read before being inserted to detect duplicates. 
+     * With <i>lml.connection.settings.insert.duplicate.check=constraint</i> the insert is executed 
+     * straight away and the database primary key detects them (one statement per entity). Beware 
+     * some databases (PostgreSQL) do not let the transaction go on after a failed statement, so 
+     * cascading an optional association that is already in the database aborts the whole save.
      * @param vo
      * @return T
      * @throws InternalErrorException (DuplicateInstanceException)
@@ -56,7 +89,7 @@ public class DefaultDAOImpl implements IDefaultDAO {
             // Check the object does not already exisist
             Object entityId = ModelUtilities.getEntityIdentifier(entity);
             
-            if (entityId != null) {
+            if (entityId != null && isReadBeforeInsert()) {
                     Object aux = null;
                     try {
                             aux = this.read(entity.getClass(), entityId);
@@ -70,15 +103,7 @@ public class DefaultDAOImpl implements IDefaultDAO {
 
             // Get the identifier when necessary
             if (entityId == null && entity.getClass().getAnnotation(PersistentEntity.class).generateKey()) {
-                Object id = new IdentifierDAOImpl(conn).generateIdentifier(entity.getClass());
-                List<Field> pkFields = ModelUtilities.getEntityIdentifierFields(entity.getClass());
-                if (pkFields.size() == 1) {
-                    pkFields.get(0).setAccessible(true);
-                    pkFields.get(0).set(entity, id);
-                } else {
-                    // A compound key cannot be auto-generated
-                    throw new InternalErrorException("DefaultDAOImpl::insert -> A compound key cannot be auto-generated. (" + entity + ")");
-                }
+                generateIdentifier(entity);
             }
             
             // Get the query
@@ -95,8 +120,16 @@ public class DefaultDAOImpl implements IDefaultDAO {
                 ModelUtilities.insertValueInQuery(ModelUtilities.getFieldValue(fieldNames[i], entity), stm, (i + 1));
             }
 
-            // Execute insert query
-            int i = stm.executeUpdate();
+            // Execute insert query (duplicates are detected by the database when they have not been looked for)
+            int i;
+            try {
+                i = stm.executeUpdate();
+            } catch (SQLException e) {
+                if (isConstraintViolation(e)) {
+                    throw new DuplicateInstanceException("The entity you try to save is already in the database! -> " + entity, e);
+                }
+                throw e;
+            }
 
             // If database generated PK, we need to get it
             if (entityId == null && !entity.getClass().getAnnotation(PersistentEntity.class).generateKey()) {
@@ -141,6 +174,44 @@ public class DefaultDAOImpl implements IDefaultDAO {
     }
     
     
+    /**
+     * This method is intended to create many records in the database. Rows are sent in batches 
+     * of <b>lml.connection.settings.batch.size</b> (one statement per entity class) and keys 
+     * generated by the database are read back when the driver supports it (otherwise entities 
+     * are inserted one by one).
+     * It is the same as <code>insertAll(entities, InsertStrategy.BATCH)</code>.
+     * Entities are not looked for before being inserted: duplicates are detected by the 
+     * database and reported with their rows (drivers that stop at the first failure of a 
+     * batch only report that one).
+     * @param entities
+     * @return entities (with their new identifiers, in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    public <T> List<T> insertAll(Collection<T> entities) throws InternalErrorException {
+        return insertAll(entities, InsertStrategy.BATCH);
+    }
+    
+    /**
+     * This method is intended to create many records in the database with the given strategy 
+     * (see <code>insertAll(Collection)</code> and <code>InsertStrategy</code>).
+     * @param entities
+     * @param strategy
+     * @return entities (with their new identifiers, in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    public <T> List<T> insertAll(Collection<T> entities, InsertStrategy strategy) throws InternalErrorException {
+        
+        List<T> result = new ArrayList<T>(entities);
+        List<Integer> rows = new ArrayList<Integer>(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            rows.add(i);
+        }
+        
+        insertRows(result, rows, strategy);
+        
+        return result;
+    }
+    
     /**
      * This method is intended to read a record from the database by its identifier/s.
      * When the entity has a compund key, entityId is the entity itself filled with key values.
@@ -279,27 +350,8 @@ public class DefaultDAOImpl implements IDefaultDAO {
             // Prepare query
             stm = conn.prepareStatement(query);
 
-            // Fill entity values
-            int index = 1;
-            List<Field> attributes = ModelUtilities.getAllPersistentEntityFields(entity.getClass());
-            for (Field f : attributes) {
-                f.setAccessible(true);
-                // If field is an entity entity we need to get its identifier
-                if (f.getAnnotation(PersistentAttribute.class).entity()) {
-                    ModelUtilities.insertValueInQuery(ModelUtilities.getEntityIdentifier(f.get(entity)), stm, index++); // TODO Does it worth it to check the identifier here?
-                } else if (!ModelUtilities.isPKField(f)) {
-                    ModelUtilities.insertValueInQuery(f.get(entity), stm, index++);
-                }
-            }
-
-            // Get entity primaryKeys (we get the ids the same order the getQuery method did)
-            List<Field> pkFields = ModelUtilities.getEntityIdentifierFields(entity.getClass());
-
-            // Fill where clause
-            for (Field pkField : pkFields) {
-                pkField.setAccessible(true);
-                ModelUtilities.insertValueInQuery(pkField.get(entity), stm, index++);
-            }
+            // Fill entity values and where clause
+            fillUpdateQuery(stm, entity);
 
             // Execute insert query
             int i = stm.executeUpdate();
@@ -312,9 +364,6 @@ public class DefaultDAOImpl implements IDefaultDAO {
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "SQL Exception while inserting: " + e.getMessage(), e);
             throw new InternalErrorException("Database Exception....", e);
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, "Reflection exception while inserting: " + e.getMessage(), e);
-            throw new ReflectionException("DefaultDAO::update\n", e);
         } finally {
                 closeResouces(stm, null);
         }
@@ -322,6 +371,180 @@ public class DefaultDAOImpl implements IDefaultDAO {
         return entity;
     }
 
+    /**
+     * This method is intended to update many records in the database with JDBC batches of 
+     * up to <b>lml.connection.settings.batch.size</b> entities.
+     * Unlike <code>update</code>, it does not fail when an entity is not in the database: 
+     * it returns how many records have been updated, so callers can compare it with the 
+     * number of entities (records the driver does not report are counted as updated).
+     * @param entities
+     * @return number of updated records
+     * @throws InternalErrorException
+     */
+    public <T> int updateAll(Collection<T> entities) throws InternalErrorException {
+        
+        int batchSize = Math.max(1, Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_BATCH_SIZE, 
+                String.valueOf(DEFAULT_BATCH_SIZE))));
+        int result = 0;
+        
+        // Entities of each class are updated with their own statement
+        for (Map.Entry<Class,List<T>> entry : groupByClass(new ArrayList<T>(entities)).entrySet()) {
+            result += updateBatches(entry.getKey(), entry.getValue(), batchSize);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method is intended to remove many records of the same class from the database with as 
+     * few statements as possible. Each statement removes as many records as fit in 
+     * <b>lml.connection.settings.max.parameters</b> bind parameters (and no more than a batch).
+     * When the entity has a compund key, every identifier is an entity filled with key values.
+     * <br/>
+     * Associated entities are not removed (the database foreign keys decide what happens to them), and 
+     * it does not fail when an identifier is not in the database: it returns how many records have been removed.
+     * @param entityClass
+     * @param entityIds
+     * @return number of removed records
+     * @throws InternalErrorException (ReflectionException)
+     */
+    public <T> int removeAll(Class<T> entityClass, Collection<?> entityIds) throws InternalErrorException {
+        
+        List<Object> ids = new ArrayList<Object>(entityIds);
+        List<Field> pkFields = ModelUtilities.getEntityIdentifierFields(entityClass);
+        int batchSize = Math.max(1, Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_BATCH_SIZE, 
+                String.valueOf(DEFAULT_BATCH_SIZE))));
+        int maxParameters = Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_MAX_PARAMETERS, 
+                String.valueOf(DEFAULT_MAX_PARAMETERS)));
+        int idsPerQuery = Math.max(1, Math.min(batchSize, maxParameters / Math.max(1, pkFields.size())));
+        int result = 0;
+        
+        PreparedStatement stm = null;
+        
+        try {
+            
+            for (int start = 0; start < ids.size(); start += idsPerQuery) {
+                
+                List<Object> chunk = ids.subList(start, Math.min(start + idsPerQuery, ids.size()));
+                
+                // Only the last chunk may need a different query
+                stm = conn.prepareStatement(ModelUtilities.getQueryForDelete(entityClass, chunk.size()));
+                
+                // Fill query (we get primary key fields the same order getQueryForDelete() method did)
+                int index = 1;
+                for (Object entityId : chunk) {
+                    if (pkFields.size() > 1) {
+                        for (Field f : pkFields) {
+                            f.setAccessible(true);
+                            ModelUtilities.insertValueInQuery(f.get(entityId), stm, index++);
+                        }
+                    } else {
+                        ModelUtilities.insertValueInQuery(entityId, stm, index++);
+                    }
+                }
+                
+                result += stm.executeUpdate();
+                closeResouces(stm, null);
+                stm = null;
+            }
+            
+            logger.log(Level.FINE, "DefaultDAOImpl::removeAll -> " + result + " " + entityClass.getName() + 
+                    " records removed.");
+            
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "SQL Exception while removing: " + e.getMessage(), e);
+            throw new InternalErrorException("Database Exception while removing.... (" + entityClass.getName() + ")", e);
+        } catch (IllegalAccessException e) {
+            logger.log(Level.SEVERE, "Reflection exception while removing: " + e.getMessage(), e);
+            throw new ReflectionException("DefaultDAOImpl::removeAll\n", e);
+        } finally {
+            closeResouces(stm, null);
+        }
+        
+        return result;
+    }
+
+    /**
+     * This method is intended to create a record or, when its identifier is already in the database, 
+     * update it, in a single statement (the native upsert of the database dialect, see 
+     * <code>ModelUtilities.getQueryForUpsert</code>). Entities without identifier are inserted.
+     * <br/>
+     * When the database has no known upsert, the entity is updated and, if no record was updated, inserted.
+     * @param entity
+     * @return T
+     * @throws InternalErrorException
+     */
+    public <T> T upsert(T entity) throws InternalErrorException {
+        
+        if (!hasIdentifier(entity)) {
+            return insert(entity);
+        }
+        
+        PreparedStatement stm = null;
+        
+        try {
+            
+            // Get the query
+            String query = ModelUtilities.getQueryForUpsert(entity.getClass(), getDialect());
+            if (query == null) {
+                updateOrInsert(entity);
+                return entity;
+            }
+            
+            // Prepare query and fill entity values
+            stm = conn.prepareStatement(query);
+            fillUpsertQuery(stm, entity);
+            
+            // Affected rows are not checked: each database counts inserts and updates its own way
+            stm.executeUpdate();
+            
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "SQL Exception while upserting: " + e.getMessage(), e);
+            throw new InternalErrorException("Database Exception while upserting.... (" + entity + ")", e);
+        } finally {
+            closeResouces(stm, null);
+        }
+        
+        return entity;
+    }
+    
+    /**
+     * This method is intended to create or update many records in the database (see <code>upsert</code>). 
+     * Entities without identifier are inserted with <code>insertAll</code>; the rest are upserted with 
+     * JDBC batches of up to <b>lml.connection.settings.batch.size</b> entities.
+     * @param entities
+     * @return entities (in the same order)
+     * @throws InternalErrorException
+     */
+    public <T> List<T> upsertAll(Collection<T> entities) throws InternalErrorException {
+        
+        List<T> result = new ArrayList<T>(entities);
+        int batchSize = Math.max(1, Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_BATCH_SIZE, 
+                String.valueOf(DEFAULT_BATCH_SIZE))));
+        
+        // New entities are just inserted (by their position, so failed rows refer to the whole collection); 
+        // the rest are upserted with a statement per class
+        List<Integer> newRows = new ArrayList<Integer>();
+        List<T> existingEntities = new ArrayList<T>();
+        for (int i = 0; i < result.size(); i++) {
+            if (!hasIdentifier(result.get(i))) {
+                newRows.add(i);
+            } else {
+                existingEntities.add(result.get(i));
+            }
+        }
+        
+        if (!newRows.isEmpty()) {
+            insertRows(result, newRows, InsertStrategy.BATCH);
+        }
+        
+        for (Map.Entry<Class,List<T>> entry : groupByClass(existingEntities).entrySet()) {
+            upsertBatches(entry.getKey(), entry.getValue(), batchSize);
+        }
+        
+        return result;
+    }
+
     /**
      * This method is used to execute a parametized simple query.
      * (This method executes <b>simple</b> queries. If you need something more sophisticated, 
@@ -442,6 +665,711 @@ public class DefaultDAOImpl implements IDefaultDAO {
         return result;
     }
 
+    /**
+     * This method inserts some entities of a collection with the given strategy, 
+     * with a statement per entity class.
+     * 
+     * @param entities every entity of the collection
+     * @param rows positions of the entities to insert
+     * @param strategy
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    private void insertRows(List<?> entities, List<Integer> rows, InsertStrategy strategy) throws InternalErrorException {
+        
+        int batchSize = Math.max(1, Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_BATCH_SIZE, 
+                String.valueOf(DEFAULT_BATCH_SIZE))));
+        
+        // Entities of each class are inserted with their own statement
+        Map<Class,List<Integer>> rowsByClass = new LinkedHashMap<Class,List<Integer>>();
+        for (Integer row : rows) {
+            List<Integer> classRows = rowsByClass.get(entities.get(row).getClass());
+            if (classRows == null) {
+                classRows = new ArrayList<Integer>();
+                rowsByClass.put(entities.get(row).getClass(), classRows);
+            }
+            classRows.add(row);
+        }
+        
+        for (Map.Entry<Class,List<Integer>> entry : rowsByClass.entrySet()) {
+            insertBatches(entry.getKey(), entities, entry.getValue(), batchSize, strategy);
+        }
+    }
+    
+    /**
+     * This method inserts the entities of a class with the given strategy.
+     * 
+     * @param entityClass
+     * @param entities every entity being inserted
+     * @param rows positions of the entities of this class
+     * @param batchSize
+     * @param strategy
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    private void insertBatches(Class entityClass, List<?> entities, List<Integer> rows, int batchSize, 
+            InsertStrategy strategy) throws InternalErrorException {
+        
+        try {
+            
+            // Entities without identifier get it from the library (a single block) or from the database
+            List<Integer> assignedRows = new ArrayList<Integer>(rows.size());
+            List<Integer> unassignedRows = new ArrayList<Integer>();
+            for (Integer row : rows) {
+                if (ModelUtilities.getEntityIdentifier(entities.get(row)) == null) {
+                    unassignedRows.add(row);
+                } else {
+                    assignedRows.add(row);
+                }
+            }
+            if (!unassignedRows.isEmpty() && 
+                    ((PersistentEntity) entityClass.getAnnotation(PersistentEntity.class)).generateKey()) {
+                List<Object> ids = new IdentifierDAOImpl(conn).generateIdentifiers(entityClass, unassignedRows.size());
+                for (int i = 0; i < unassignedRows.size(); i++) {
+                    setIdentifier(entities.get(unassignedRows.get(i)), ids.get(i));
+                }
+                assignedRows = rows;
+                unassignedRows = new ArrayList<Integer>();
+            }
+            
+            // Keys generated by the database are matched to rows in order, so only rows without identifier may get them
+            if (!assignedRows.isEmpty()) {
+                executeInserts(entityClass, entities, assignedRows, batchSize, strategy, false);
+            }
+            if (!unassignedRows.isEmpty()) {
+                executeInserts(entityClass, entities, unassignedRows, batchSize, strategy, true);
+            }
+            
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "SQL Exception while inserting: " + e.getMessage(), e);
+            throw new InternalErrorException("Database Exception while inserting.... (" + entityClass.getName() + ")", e);
+        }
+    }
+    
+    /**
+     * This method sends the inserts of some entities of a class to the database with the given strategy.
+     * 
+     * @param entityClass
+     * @param entities every entity being inserted
+     * @param rows positions of the entities to insert
+     * @param batchSize
+     * @param strategy
+     * @param generatedByDatabase whether keys generated by the database must be read
+     * @throws java.sql.SQLException
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    private void executeInserts(Class entityClass, List<?> entities, List<Integer> rows, int batchSize, 
+            InsertStrategy strategy, boolean generatedByDatabase) throws SQLException, InternalErrorException {
+        
+        // Without generated keys support, keys can only be read inserting entities one by one
+        if (generatedByDatabase && !conn.getMetaData().supportsGetGeneratedKeys()) {
+            for (Integer row : rows) {
+                insert(entities.get(row));
+            }
+        } else if (InsertStrategy.MULTI_ROW.equals(strategy)) {
+            insertMultiRow(entityClass, entities, rows, batchSize, generatedByDatabase);
+        } else {
+            executeBatches(entityClass, entities, rows, batchSize, generatedByDatabase);
+        }
+    }
+    
+    /**
+     * This method updates the entities of a class with JDBC batches of the update query.
+     * 
+     * @param entityClass
+     * @param entities
+     * @param batchSize
+     * @return number of updated records
+     * @throws InternalErrorException
+     */
+    private int updateBatches(Class entityClass, List<?> entities, int batchSize) throws InternalErrorException {
+        
+        PreparedStatement stm = null;
+        int result = 0;
+        
+        try {
+            
+            // Prepare query
+            stm = conn.prepareStatement(ModelUtilities.getQueryForUpdate(entityClass));
+            
+            for (int start = 0; start < entities.size(); start += batchSize) {
+                
+                List<?> batch = entities.subList(start, Math.min(start + batchSize, entities.size()));
+                
+                // Fill a row per entity
+                for (Object entity : batch) {
+                    fillUpdateQuery(stm, entity);
+                    stm.addBatch();
+                }
+                
+                for (int count : stm.executeBatch()) {
+                    if (count == Statement.SUCCESS_NO_INFO) {
+                        result++;
+                    } else if (count > 0) {
+                        result += count;
+                    }
+                }
+                
+                logger.log(Level.FINE, "DefaultDAOImpl::updateAll -> " + batch.size() + " " + entityClass.getName() + 
+                        " entities updated.");
+            }
+            
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "SQL Exception while updating: " + e.getMessage(), e);
+            throw new InternalErrorException("Database Exception while updating.... (" + entityClass.getName() + ")", e);
+        } finally {
+            // Rows added before a failure must not be executed by the next user of a cached statement
+            clearBatch(stm);
+            closeResouces(stm, null);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method splits a list of entities by class (keeping their order), as 
+     * entities of each class are written with their own statement.
+     * 
+     * @param entities
+     * @return entities per class
+     */
+    private static <T> Map<Class,List<T>> groupByClass(List<T> entities) {
+        Map<Class,List<T>> result = new LinkedHashMap<Class,List<T>>();
+        for (T entity : entities) {
+            List<T> classEntities = result.get(entity.getClass());
+            if (classEntities == null) {
+                classEntities = new ArrayList<T>();
+                result.put(entity.getClass(), classEntities);
+            }
+            classEntities.add(entity);
+        }
+        return result;
+    }
+    
+    /**
+     * This method upserts the entities of a class with JDBC batches of the upsert query 
+     * (one by one when the database has no known upsert).
+     * 
+     * @param entityClass
+     * @param entities
+     * @param batchSize
+     * @throws InternalErrorException
+     */
+    private void upsertBatches(Class entityClass, List<?> entities, int batchSize) throws InternalErrorException {
+        
+        PreparedStatement stm = null;
+        
+        try {
+            
+            // Get the query
+            String query = ModelUtilities.getQueryForUpsert(entityClass, getDialect());
+            if (query == null) {
+                for (Object entity : entities) {
+                    updateOrInsert(entity);
+                }
+                return;
+            }
+            
+            // Prepare query
+            stm = conn.prepareStatement(query);
+            
+            for (int start = 0; start < entities.size(); start += batchSize) {
+                
+                List<?> batch = entities.subList(start, Math.min(start + batchSize, entities.size()));
+                
+                // Fill a row per entity
+                for (Object entity : batch) {
+                    fillUpsertQuery(stm, entity);
+                    stm.addBatch();
+                }
+                
+                // Affected rows are not checked: each database counts inserts and updates its own way
+                stm.executeBatch();
+                
+                logger.log(Level.FINE, "DefaultDAOImpl::upsertAll -> " + batch.size() + " " + entityClass.getName() + 
+                        " entities upserted.");
+            }
+            
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "SQL Exception while upserting: " + e.getMessage(), e);
+            throw new InternalErrorException("Database Exception while upserting.... (" + entityClass.getName() + ")", e);
+        } finally {
+            // Rows added before a failure must not be executed by the next user of a cached statement
+            clearBatch(stm);
+            closeResouces(stm, null);
+        }
+    }
+    
+    /**
+     * This method fills the parameters of the upsert query: every persistent field, in order 
+     * (associated entities are represented by their identifier).
+     * 
+     * @param stm
+     * @param entity
+     * @throws java.sql.SQLException
+     * @throws InternalErrorException (ReflectionException)
+     */
+    private void fillUpsertQuery(PreparedStatement stm, Object entity) throws SQLException, InternalErrorException {
+        try {
+            int index = 1;
+            for (Field f : ModelUtilities.getAllPersistentEntityFields(entity.getClass())) {
+                f.setAccessible(true);
+                Object value = f.get(entity);
+                if (value != null && f.getAnnotation(PersistentAttribute.class).entity()) {
+                    value = ModelUtilities.getEntityIdentifier(value);
+                }
+                ModelUtilities.insertValueInQuery(value, stm, index++);
+            }
+        } catch (IllegalAccessException e) {
+            logger.log(Level.SEVERE, "Reflection exception while upserting (" + entity + "): " + e.getMessage(), e);
+            throw new ReflectionException("DefaultDAOImpl::upsert\n", e);
+        }
+    }
+    
+    /**
+     * This method emulates an upsert when the database has none: the entity is updated and, 
+     * when no record has been updated, inserted.
+     * 
+     * @param entity
+     * @throws InternalErrorException
+     */
+    private void updateOrInsert(Object entity) throws InternalErrorException {
+        
+        PreparedStatement stm = null;
+        int updated;
+        
+        try {
+            stm = conn.prepareStatement(ModelUtilities.getQueryForUpdate(entity.getClass()));
+            fillUpdateQuery(stm, entity);
+            updated = stm.executeUpdate();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "SQL Exception while upserting: " + e.getMessage(), e);
+            throw new InternalErrorException("Database Exception while upserting.... (" + entity + ")", e);
+        } finally {
+            closeResouces(stm, null);
+        }
+        
+        if (updated == 0) {
+            insert(entity);
+        }
+    }
+    
+    /**
+     * This method fills the parameters of the update query: the non key fields followed 
+     * by the identifier fields of the where clause.
+     * 
+     * @param stm
+     * @param entity
+     * @throws java.sql.SQLException
+     * @throws InternalErrorException (ReflectionException)
+     */
+    private void fillUpdateQuery(PreparedStatement stm, Object entity) throws SQLException, InternalErrorException {
+        try {
+            // Fill entity values
+            int index = 1;
+            List<Field> attributes = ModelUtilities.getAllPersistentEntityFields(entity.getClass());
+            for (Field f : attributes) {
+                f.setAccessible(true);
+                // If field is an entity entity we need to get its identifier
+                if (f.getAnnotation(PersistentAttribute.class).entity()) {
+                    ModelUtilities.insertValueInQuery(ModelUtilities.getEntityIdentifier(f.get(entity)), stm, index++); // TODO Does it worth it to check the identifier here?
+                } else if (!ModelUtilities.isPKField(f)) {
+                    ModelUtilities.insertValueInQuery(f.get(entity), stm, index++);
+                }
+            }
+
+            // Get entity primaryKeys (we get the ids the same order the getQuery method did)
+            List<Field> pkFields = ModelUtilities.getEntityIdentifierFields(entity.getClass());
+
+            // Fill where clause
+            for (Field pkField : pkFields) {
+                pkField.setAccessible(true);
+                ModelUtilities.insertValueInQuery(pkField.get(entity), stm, index++);
+            }
+        } catch (IllegalAccessException e) {
+            logger.log(Level.SEVERE, "Reflection exception while updating: " + e.getMessage(), e);
+            throw new ReflectionException("DefaultDAO::update\n", e);
+        }
+    }
+    
+    /**
+     * This method tells whether every identifier field of an entity has a value.
+     * 
+     * @param entity
+     * @return <b>true</b> when the entity has an identifier
+     * @throws InternalErrorException (ReflectionException)
+     */
+    private boolean hasIdentifier(Object entity) throws InternalErrorException {
+        try {
+            for (Field pkField : ModelUtilities.getEntityIdentifierFields(entity.getClass())) {
+                pkField.setAccessible(true);
+                if (pkField.get(entity) == null) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IllegalAccessException e) {
+            throw new ReflectionException(e);
+        }
+    }
+    
+    /**
+     * This method inserts the entities of a class with JDBC batches of the insert query.
+     * 
+     * @param entityClass
+     * @param entities every entity being inserted
+     * @param rows positions of the entities of this class
+     * @param batchSize
+     * @param generatedByDatabase whether keys generated by the database must be read
+     * @throws java.sql.SQLException
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    private void executeBatches(Class entityClass, List<?> entities, List<Integer> rows, int batchSize, 
+            boolean generatedByDatabase) throws SQLException, InternalErrorException {
+        
+        PreparedStatement stm = null;
+        
+        try {
+            
+            // Get the query
+            String query = ModelUtilities.getQueryForInsert(entityClass);
+            String[] fieldNames = query.substring(query.indexOf('(') + 1, query.indexOf(')')).split(",");
+            
+            // Prepare query
+            stm = generatedByDatabase ? conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS) : 
+                conn.prepareStatement(query);
+            
+            for (int start = 0; start < rows.size(); start += batchSize) {
+                
+                List<Integer> batch = rows.subList(start, Math.min(start + batchSize, rows.size()));
+                
+                // Fill a row per entity
+                for (Integer row : batch) {
+                    Object entity = entities.get(row);
+                    for (int i = 0; i < fieldNames.length; i++) {
+                        ModelUtilities.insertValueInQuery(ModelUtilities.getFieldValue(fieldNames[i], entity), stm, (i + 1));
+                    }
+                    stm.addBatch();
+                }
+                
+                // Execute the batch
+                int[] counts;
+                try {
+                    counts = stm.executeBatch();
+                } catch (BatchUpdateException e) {
+                    throw getBatchException(entities, batch, e);
+                }
+                
+                // Every row must have inserted exactly one record
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != 1 && counts[i] != Statement.SUCCESS_NO_INFO) {
+                        throw new InternalErrorException("DefaultDAOImpl::insertAll -> " + counts[i] + 
+                                " records have been inserted. (" + entities.get(batch.get(i)) + ")");
+                    }
+                }
+                
+                // If database generated PKs, we need to get them
+                if (generatedByDatabase) {
+                    readGeneratedKeys(stm, entityClass, entities, batch);
+                }
+                
+                logger.log(Level.FINE, "DefaultDAOImpl::insertAll -> " + batch.size() + " " + entityClass.getName() + 
+                        " entities inserted.");
+            }
+            
+        } finally {
+            // Rows added before a failure must not be executed by the next user of a cached statement
+            clearBatch(stm);
+            closeResouces(stm, null);
+        }
+    }
+    
+    /**
+     * This method inserts the entities of a class with multi-row insert queries. Each query 
+     * inserts as many rows as fit in <b>lml.connection.settings.max.parameters</b> bind 
+     * parameters (and no more than a batch), so at most two different queries are prepared.
+     * 
+     * @param entityClass
+     * @param entities every entity being inserted
+     * @param rows positions of the entities of this class
+     * @param batchSize
+     * @param generatedByDatabase whether keys generated by the database must be read
+     * @throws java.sql.SQLException
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    private void insertMultiRow(Class entityClass, List<?> entities, List<Integer> rows, int batchSize, 
+            boolean generatedByDatabase) throws SQLException, InternalErrorException {
+        
+        String query = ModelUtilities.getQueryForInsert(entityClass);
+        String[] fieldNames = query.substring(query.indexOf('(') + 1, query.indexOf(')')).split(",");
+        int maxParameters = Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_MAX_PARAMETERS, 
+                String.valueOf(DEFAULT_MAX_PARAMETERS)));
+        int rowsPerQuery = Math.max(1, Math.min(batchSize, maxParameters / fieldNames.length));
+        
+        for (int start = 0; start < rows.size(); start += rowsPerQuery) {
+            
+            List<Integer> chunk = rows.subList(start, Math.min(start + rowsPerQuery, rows.size()));
+            String chunkQuery = ModelUtilities.getQueryForInsert(entityClass, chunk.size());
+            PreparedStatement stm = null;
+            
+            try {
+                
+                // Prepare query (pooled connections keep it in their statement cache for the next chunk)
+                stm = generatedByDatabase ? conn.prepareStatement(chunkQuery, Statement.RETURN_GENERATED_KEYS) : 
+                    conn.prepareStatement(chunkQuery);
+                
+                // Fill the values of every entity
+                int index = 1;
+                for (Integer row : chunk) {
+                    Object entity = entities.get(row);
+                    for (int i = 0; i < fieldNames.length; i++) {
+                        ModelUtilities.insertValueInQuery(ModelUtilities.getFieldValue(fieldNames[i], entity), stm, index++);
+                    }
+                }
+                
+                // Execute insert query (the database does not tell which row was duplicated)
+                int inserted;
+                try {
+                    inserted = stm.executeUpdate();
+                } catch (SQLException e) {
+                    if (isConstraintViolation(e)) {
+                        List<Object> chunkEntities = new ArrayList<Object>(chunk.size());
+                        for (Integer row : chunk) {
+                            chunkEntities.add(entities.get(row));
+                        }
+                        throw new BatchDuplicateInstanceException("DefaultDAOImpl::insertAll -> Some of the entities at rows " + 
+                                chunk + " are already in the database!", new ArrayList<Integer>(chunk), chunkEntities, e);
+                    }
+                    throw e;
+                }
+                
+                // We must have inserted exactly one record per entity
+                if (inserted != chunk.size()) {
+                    throw new InternalErrorException("DefaultDAOImpl::insertAll -> " + inserted + " records have been inserted " +
+                            "instead of " + chunk.size() + ". (" + entityClass.getName() + ")");
+                }
+                
+                // If database generated PKs, we need to get them
+                if (generatedByDatabase) {
+                    readGeneratedKeys(stm, entityClass, entities, chunk);
+                }
+                
+                logger.log(Level.FINE, "DefaultDAOImpl::insertAll -> " + chunk.size() + " " + entityClass.getName() + 
+                        " entities inserted.");
+                
+            } finally {
+                closeResouces(stm, null);
+            }
+        }
+    }
+    
+    /**
+     * This method sets the keys generated by the database for a batch into its entities.
+     * 
+     * @param stm statement the batch was executed with
+     * @param entityClass
+     * @param entities every entity being inserted
+     * @param batch positions of the entities in the batch
+     * @throws java.sql.SQLException
+     * @throws InternalErrorException (AutogeneratedKeysReturnNotSupportedException, ReflectionException)
+     */
+    private void readGeneratedKeys(PreparedStatement stm, Class entityClass, List<?> entities, List<Integer> batch) 
+            throws SQLException, InternalErrorException {
+        
+        List<Field> pkFields = ModelUtilities.getEntityIdentifierFields(entityClass);
+        if (pkFields.size() != 1) {
+            // A compound key cannot be auto-generated
+            throw new InternalErrorException("DefaultDAOImpl::insertAll -> A compound key cannot be auto-generated. (" + 
+                    entityClass.getName() + ")");
+        }
+        Field pkField = pkFields.get(0);
+        pkField.setAccessible(true);
+        
+        ResultSet pkRs = stm.getGeneratedKeys();
+        if (pkRs == null) {
+            throw new AutogeneratedKeysReturnNotSupportedException();
+        }
+        
+        try {
+            for (Integer row : batch) {
+                if (!pkRs.next()) {
+                    throw new AutogeneratedKeysReturnNotSupportedException("DefaultDAOImpl::insertAll -> The driver did not " +
+                            "return the key generated for every row of the batch.");
+                }
+                Object entity = entities.get(row);
+                if (pkField.get(entity) == null) {
+                    pkField.set(entity, ModelUtilities.getValueFromQuery(pkField.getType(), pkRs, 1));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new ReflectionException(e);
+        } finally {
+            closeResouces(null, pkRs);
+        }
+    }
+    
+    /**
+     * This method builds the exception thrown when a batch fails, with the rows that failed.
+     * 
+     * @param entities every entity being inserted
+     * @param batch positions of the entities in the batch
+     * @param e
+     * @return BatchDuplicateInstanceException when the rows violated a constraint, InternalErrorException otherwise
+     */
+    private InternalErrorException getBatchException(List<?> entities, List<Integer> batch, BatchUpdateException e) {
+        
+        // Drivers either go on after a failed row (marking it) or stop at the first one
+        int[] counts = (e.getUpdateCounts() == null) ? new int[0] : e.getUpdateCounts();
+        List<Integer> failedRows = new ArrayList<Integer>();
+        List<Object> failedEntities = new ArrayList<Object>();
+        for (int i = 0; i < batch.size(); i++) {
+            if ((i < counts.length && counts[i] == Statement.EXECUTE_FAILED) || 
+                    (i == counts.length && counts.length < batch.size())) {
+                failedRows.add(batch.get(i));
+                failedEntities.add(entities.get(batch.get(i)));
+            }
+        }
+        
+        logger.log(Level.SEVERE, "SQL Exception while inserting a batch (rows " + failedRows + "): " + e.getMessage(), e);
+        if (isConstraintViolation(e)) {
+            return new BatchDuplicateInstanceException("DefaultDAOImpl::insertAll -> The entities at rows " + failedRows + 
+                    " are already in the database!", failedRows, failedEntities, e);
+        }
+        return new InternalErrorException("DefaultDAOImpl::insertAll -> Database Exception while inserting rows " + failedRows, e);
+    }
+    
+    /**
+     * This method checks whether a database error is a unique (or primary) key violation: 
+     * SQLState 23505 or, for the databases that report every integrity violation as 23000 
+     * (MySQL, Oracle, SQL Server), their duplicated key vendor codes. Other integrity 
+     * violations (not null, foreign key, check) are real failures and must not be taken for duplicates.
+     * 
+     * @param e
+     * @return <b>true</b> when the error (or any error chained to it) is a duplicated key
+     */
+    protected boolean isConstraintViolation(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            String state = cause.getSQLState();
+            if ("23505".equals(state)) {
+                return true;
+            }
+            if (("23000".equals(state) || (state == null && cause instanceof SQLIntegrityConstraintViolationException)) && 
+                    isDuplicateKeyCode(cause.getErrorCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * This method checks whether a vendor error code denotes a duplicated key: 
+     * MySQL (1062), Oracle (1, ORA-00001) and SQL Server (2627, 2601).
+     * 
+     * @param code
+     * @return <b>true</b> when the code denotes a duplicated key
+     */
+    private static boolean isDuplicateKeyCode(int code) {
+        return code == 1062 || code == 1 || code == 2627 || code == 2601;
+    }
+    
+    /**
+     * This method tells whether entities must be read before being inserted to detect duplicates 
+     * (<b>lml.connection.settings.insert.duplicate.check</b>).
+     * 
+     * @return <b>false</b> when duplicates are detected by the database constraints
+     */
+    private static boolean isReadBeforeInsert() {
+        
+        Boolean result = readBeforeInsert;
+        
+        if (result == null) {
+            result = !INSERT_DUPLICATE_CHECK_CONSTRAINT.equalsIgnoreCase(LMLGlobalOperations.getConnectionSetting(
+                    CONNECTION_SETTINGS_INSERT_DUPLICATE_CHECK, INSERT_DUPLICATE_CHECK_READ));
+            readBeforeInsert = result;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method gets the dialect of the database (<b>lml.connection.settings.dialect</b> of the 
+     * connection provider or, when it is not set, the one of the product the driver reports).
+     * 
+     * @return dialect
+     * @throws java.sql.SQLException
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException when the configured dialect is not known
+     */
+    protected Dialect getDialect() throws SQLException, InternalErrorException {
+        
+        if (dialect == null && providerName != null) {
+            dialect = dialects.get(providerName);
+        }
+        
+        if (dialect == null) {
+            String configured = LMLGlobalOperations.getConnectionSetting(providerName, CONNECTION_SETTINGS_DIALECT, "").trim();
+            if (configured.length() > 0) {
+                try {
+                    dialect = Dialect.valueOf(configured.toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    throw new InternalErrorException("DefaultDAOImpl::getDialect -> Unknown dialect: " + configured + ".", ex);
+                }
+            } else {
+                dialect = Dialect.fromProductName(conn.getMetaData().getDatabaseProductName());
+            }
+            if (providerName != null) {
+                dialects.putIfAbsent(providerName, dialect);
+            }
+        }
+        
+        return dialect;
+    }
+    
+    /**
+     * This method generates an identifier with the library and sets it into an entity.
+     * 
+     * @param entity
+     * @throws InternalErrorException (ReflectionException)
+     */
+    private void generateIdentifier(Object entity) throws InternalErrorException {
+        setIdentifier(entity, new IdentifierDAOImpl(conn).generateIdentifier(entity.getClass()));
+    }
+    
+    /**
+     * This method sets an identifier generated by the library into an entity.
+     * 
+     * @param entity
+     * @param id
+     * @throws InternalErrorException (ReflectionException)
+     */
+    private void setIdentifier(Object entity, Object id) throws InternalErrorException {
+        try {
+            List<Field> pkFields = ModelUtilities.getEntityIdentifierFields(entity.getClass());
+            if (pkFields.size() == 1) {
+                pkFields.get(0).setAccessible(true);
+                pkFields.get(0).set(entity, id);
+            } else {
+                // A compound key cannot be auto-generated
+                throw new InternalErrorException("DefaultDAOImpl::insert -> A compound key cannot be auto-generated. (" + entity + ")");
+            }
+        } catch (IllegalAccessException e) {
+            logger.log(Level.SEVERE, "Reflection exception while inserting (" + entity + "): " + e.getMessage(), e);
+            throw new ReflectionException(e);
+        }
+    }
+
+    /**
+     * This method discards the rows added to the batch of a statement and not executed yet.
+     * 
+     * @param stm
+     */
+    private void clearBatch(PreparedStatement stm) {
+        if (stm != null) {
+            try {
+                stm.clearBatch();
+            } catch (SQLException e) {
+                logger.log(Level.FINE, "DefaultDAOImpl::clearBatch -> Could not clear the statement batch: " + e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * Closes resources used when interacting with the database.
      * @param stm
@@ -1,5 +1,6 @@
 package org.paquitosoft.lml.model.dao;
 
+import java.util.Collection;
 import java.util.List;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 
@@ -19,6 +20,26 @@ public interface IDefaultDAO {
      */    
     <T> T insert(T entity) throws InternalErrorException;
     
+    /**
+     * This method is intended to create many records in the database with as few 
+     * round trips as possible (statement batches).
+     * It raises an exception with the duplicated rows when some identifiers are already used.
+     * @param entities
+     * @return entities (with their new identifiers, in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    <T> List<T> insertAll(Collection<T> entities) throws InternalErrorException;
+    
+    /**
+     * This method is intended to create many records in the database choosing how rows 
+     * are sent to it (see <code>InsertStrategy</code>).
+     * @param entities
+     * @param strategy
+     * @return entities (with their new identifiers, in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException)
+     */
+    <T> List<T> insertAll(Collection<T> entities, InsertStrategy strategy) throws InternalErrorException;
+    
     /**
      * This method is intended to read a record from the database by its identifier/s.
      * When the entity has a compund key, entityId is the entity itself filled with key values.
@@ -49,6 +70,43 @@ public interface IDefaultDAO {
      */
     <T> T update(T entity) throws InternalErrorException;
     
+    /**
+     * This method is intended to update many records in the database (statement batches).
+     * @param entities
+     * @return number of updated records
+     * @throws InternalErrorException
+     */
+    <T> int updateAll(Collection<T> entities) throws InternalErrorException;
+    
+    /**
+     * This method is intended to remove many records of the same class from the database 
+     * (<i>DELETE ... WHERE PK IN (...)</i> statements).
+     * When the entity has a compund key, every identifier is an entity filled with key values.
+     * @param entityClass
+     * @param entityIds
+     * @return number of removed records
+     * @throws InternalErrorException (ReflectionException)
+     */
+    <T> int removeAll(Class<T> entityClass, Collection<?> entityIds) throws InternalErrorException;
+    
+    /**
+     * This method is intended to create a record or, when its identifier is already in 
+     * the database, update it, in a single statement (the native upsert of the database).
+     * @param entity
+     * @return T
+     * @throws InternalErrorException
+     */
+    <T> T upsert(T entity) throws InternalErrorException;
+    
+    /**
+     * This method is intended to create or update many records in the database 
+     * (statement batches of the native upsert).
+     * @param entities
+     * @return entities (in the same order)
+     * @throws InternalErrorException
+     */
+    <T> List<T> upsertAll(Collection<T> entities) throws InternalErrorException;
+    
     /**
      * This method is used to execute a parametized simple query.
      * (This method executes <b>simple</b> queries. If you need something more sophisticated, 
@@ -1,5 +1,6 @@
 package org.paquitosoft.lml.model.dao;
 
+import java.util.List;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 
 /**
@@ -11,4 +12,6 @@ public interface IIdentifierDAO {
 
     Object generateIdentifier(Class entityType) throws InternalErrorException;
     
+    List<Object> generateIdentifiers(Class entityType, int count) throws InternalErrorException;
+    
 }
@@ -6,6 +6,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 import org.paquitosoft.lml.model.exception.ReflectionException;
@@ -33,8 +34,21 @@ public class IdentifierDAOImpl extends DefaultDAOImpl implements IIdentifierDAO
     }
     
     public Object generateIdentifier(Class entityType) throws InternalErrorException {
+        return generateIdentifiers(entityType, 1).get(0);
+    }
+    
+    /**
+     * This method reserves a block of consecutive identifiers with a single counter update.
+     * 
+     * @param entityType
+     * @param count number of identifiers
+     * @return identifiers (in ascending order)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    public List<Object> generateIdentifiers(Class entityType, int count) throws InternalErrorException {
         
-        Object result = null;
+        List<Object> result = new ArrayList<Object>(count);
+        Object first = null;
         PreparedStatement stm = null;
         ResultSet rs = null;
         
@@ -61,21 +75,26 @@ public class IdentifierDAOImpl extends DefaultDAOImpl implements IIdentifierDAO
             stm.setString(1, tableName);
             rs = stm.executeQuery();
             if (rs.next()) {
-                result = ModelUtilities.getValueFromQuery(pkType, rs, "NEXT_VALUE");
+                first = ModelUtilities.getValueFromQuery(pkType, rs, "NEXT_VALUE");
             } else {
                 // This means there is no row for this entity. Let's create it                
-                result = getNextIdValue(getLastEntityIdentifier(entityType, conn), pkType); // We need to search entity's table because of the chance the table is not emtpy.
+                first = getNextIdValue(getLastEntityIdentifier(entityType, conn), pkType); // We need to search entity's table because of the chance the table is not emtpy.
                 stm = conn.prepareStatement(INSERT_COUNTER_QUERY);
                 stm.setString(1, tableName);                
-                ModelUtilities.insertValueInQuery(result, stm, 2);
+                ModelUtilities.insertValueInQuery(first, stm, 2);
                 if (stm.executeUpdate() != 1) {
                     throw new InternalErrorException("IdentifierDAOImpl::generateIdentifier -> Insert new row failed!");
                 }
             }
             
-            // Update next available value
+            // Reserve the block and update next available value
+            Object next = first;
+            for (int i = 0; i < count; i++) {
+                result.add(next);
+                next = getNextIdValue(next, pkType);
+            }
             stm = conn.prepareStatement(UPDATE_COUNTER_QUERY);
-            ModelUtilities.insertValueInQuery(getNextIdValue(result, pkType), stm, 1);
+            ModelUtilities.insertValueInQuery(next, stm, 1);
             stm.setString(2, tableName);            
             if (stm.executeUpdate() != 1) {
                 throw new InternalErrorException("IdentifierDAOImpl::generateIdentifier -> Update next available value failed!");
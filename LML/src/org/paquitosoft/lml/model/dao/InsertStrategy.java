@@ -0,0 +1,26 @@
+package org.paquitosoft.lml.model.dao;
+
+/**
+ *  This enum represents how many entities are sent to the database when they 
+ *  are inserted at once (see <code>IDefaultDAO.insertAll</code>).
+ *  Which one is faster depends on the database and its driver.
+ * 
+ * @author paquitosoft
+ */
+public enum InsertStrategy {
+    
+    /**
+     * The insert query is executed in JDBC batches of <b>lml.connection.settings.batch.size</b> 
+     * rows. Duplicates are reported row by row.
+     */
+    BATCH,
+    
+    /**
+     * Rows are sent in multi-row inserts (<i>INSERT ... VALUES (...), (...), ...</i>) with as many 
+     * rows as fit in <b>lml.connection.settings.max.parameters</b> bind parameters. For drivers 
+     * that send every row of a batch on its own. Duplicates are reported for the whole 
+     * statement, and some databases (Oracle) do not support this syntax.
+     */
+    MULTI_ROW
+    
+}
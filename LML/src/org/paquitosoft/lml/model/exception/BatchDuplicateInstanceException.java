@@ -0,0 +1,59 @@
+package org.paquitosoft.lml.model.exception;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *  This exception is used to warn about the entities of a batch that could not be
+ *  saved because their identifier (or another unique value) was already used.
+ *  Rows are the positions of those entities in the saved collection.
+ *
+ * @author paquitosoft
+ */
+public class BatchDuplicateInstanceException extends DuplicateInstanceException {
+
+    private List<Integer> rows = Collections.emptyList();
+
+    private List<Object> entities = Collections.emptyList();
+
+    public BatchDuplicateInstanceException() {
+        super();
+    }
+
+    public BatchDuplicateInstanceException(String message) {
+        super(message);
+    }
+
+    public BatchDuplicateInstanceException(Throwable t) {
+        super(t);
+    }
+
+    public BatchDuplicateInstanceException(String message, Throwable t) {
+        super(message, t);
+    }
+
+    public BatchDuplicateInstanceException(String message, List<Integer> rows, List<Object> entities, Throwable t) {
+        super(message, t);
+        this.rows = Collections.unmodifiableList(rows);
+        this.entities = Collections.unmodifiableList(entities);
+    }
+
+    /**
+     * This method returns the positions (in the saved collection) of the duplicated entities.
+     *
+     * @return rows
+     */
+    public List<Integer> getRows() {
+        return rows;
+    }
+
+    /**
+     * This method returns the duplicated entities (in the same order as <code>getRows()</code>).
+     *
+     * @return entities
+     */
+    public List<Object> getEntities() {
+        return entities;
+    }
+
+}
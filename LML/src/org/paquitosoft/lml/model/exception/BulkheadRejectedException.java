@@ -0,0 +1,27 @@
+package org.paquitosoft.lml.model.exception;
+
+/**
+ *  This exception is used to warn about an action that has not been executed 
+ *  because its bulkhead was full (see <code>ActionProcessor</code>).
+ * 
+ * @author paquitosoft
+ */
+public class BulkheadRejectedException extends InternalErrorException {
+
+    public BulkheadRejectedException() {
+        super();
+    }
+    
+    public BulkheadRejectedException(String message) {
+        super(message);
+    }
+    
+    public BulkheadRejectedException(Throwable t) {
+        super(t);
+    }
+    
+    public BulkheadRejectedException(String message, Throwable t) {
+        super(message, t);
+    }
+    
+}
@@ -0,0 +1,274 @@
+package org.paquitosoft.lml.model.facade;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.paquitosoft.lml.model.action.ActionProcessor;
+import org.paquitosoft.lml.model.action.FindEntitiesAction;
+import org.paquitosoft.lml.model.action.IAction;
+import org.paquitosoft.lml.model.action.PersistAction;
+import org.paquitosoft.lml.model.action.Propagation;
+import org.paquitosoft.lml.model.action.ReadEntityAction;
+import org.paquitosoft.lml.model.action.connection.Priority;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+import org.paquitosoft.lml.util.LMLGlobalOperations;
+
+/**
+ *  This is the implementation of the asynchronous facade. Actions are executed by 
+ *  <code>ActionProcessor</code> in the given executor or, by default, in a shared one
+ *  configured in the <b>lml-conn-settings</b> file:
+ *  <ul>
+ *      <li>
+ *          <i>lml.connection.settings.async.executor=fixed</i> (default): a fixed number of daemon 
+ *          threads, <b>lml.connection.settings.async.threads</b> (by default as many as connections 
+ *          the default pool can open), so no thread waits for a connection. Queued actions are 
+ *          executed by priority: an action waits behind higher priority ones queued up to 
+ *          <b>lml.connection.settings.pool.starvation.threshold</b> milliseconds (per level) after it, 
+ *          so batch work is never starved. At most <b>lml.connection.settings.async.queue.size</b> actions 
+ *          wait in the queue; beyond that, actions are rejected and their futures fail at once.
+ *      </li>
+ *      <li>
+ *          <i>lml.connection.settings.async.executor=virtual</i>: one virtual thread per action 
+ *          (when the JVM supports them); the pool queue bounds how many of them use the database.
+ *      </li>
+ *  </ul>
+ *  Actions get their connections with the priority of the facade (<code>NORMAL</code> by default).
+ * 
+ * @author paquitosoft
+ */
+public class AsyncLMLFacadeImpl implements IAsyncLMLFacade {
+
+    private static Logger logger = Logger.getLogger(AsyncLMLFacadeImpl.class.getName());
+    
+    private static volatile ExecutorService defaultExecutor;
+    
+    private static final AtomicLong taskCounter = new AtomicLong(0);
+    
+    private Executor executor;
+    
+    private long timeout;
+    
+    private Priority priority;
+    
+    /**
+     * Constructor. Actions will be executed in the shared executor.
+     */
+    public AsyncLMLFacadeImpl() {
+        this(getDefaultExecutor());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param executor executor actions will be executed in
+     */
+    public AsyncLMLFacadeImpl(Executor executor) {
+        this(executor, ActionProcessor.getDefaultTimeout());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param executor executor actions will be executed in
+     * @param timeout milliseconds every operation may take once it starts running, including 
+     *          the related entities it reads or persists (0 means no limit)
+     */
+    public AsyncLMLFacadeImpl(Executor executor, long timeout) {
+        this(executor, timeout, Priority.NORMAL);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param executor executor actions will be executed in
+     * @param timeout milliseconds every operation may take once it starts running, including 
+     *          the related entities it reads or persists (0 means no limit)
+     * @param priority priority actions are queued (in the shared executor) and get their connections with
+     */
+    public AsyncLMLFacadeImpl(Executor executor, long timeout, Priority priority) {
+        this.executor = executor;
+        this.timeout = timeout;
+        this.priority = priority;
+    }
+    
+    public <T> CompletableFuture<T> save(T entity) {
+        return process(new PersistAction(entity, PERSIST_MODE_SAVE));
+    }
+    
+    public <T> CompletableFuture<T> read(Class<T> entityType, Object entityId, Integer detailLevel) {
+        return process(new ReadEntityAction(entityType, entityId, detailLevel));
+    }
+    
+    public <T> CompletableFuture<T> update(T entity) {
+        return process(new PersistAction(entity, PERSIST_MODE_UPDATE));
+    }
+    
+    public <T> CompletableFuture<T> remove(T entity) {
+        return process(new PersistAction(entity, PERSIST_MODE_DELETE));
+    }
+    
+    public <T> CompletableFuture<List<T>> finder(String query, Class<T> entityType, Integer detailLevel, Object ... params) {
+        return process(new FindEntitiesAction(query, entityType, detailLevel, params));
+    }
+    
+    /**
+     * This method executes an action in the executor.
+     * 
+     * @param action
+     * @return future of the action result
+     */
+    private <T> CompletableFuture<T> process(final IAction action) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        try {
+            executor.execute(new PrioritizedTask(priority) {
+                public void run() {
+                    try {
+                        result.complete(new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).<T>processAction());
+                    } catch (Throwable ex) {
+                        result.completeExceptionally((ex instanceof CompletionException) ? ex : new CompletionException(ex));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(new CompletionException(new InternalErrorException(
+                    "AsyncLMLFacadeImpl::process -> The action has been rejected by the executor (queue full or shut down).", ex)));
+        }
+        return result;
+    }
+    
+    /**
+     * This method returns the executor shared by the facades created without one, 
+     * creating it the first time.
+     * 
+     * @return shared executor
+     */
+    static ExecutorService getDefaultExecutor() {
+        
+        ExecutorService result = defaultExecutor;
+        
+        if (result == null) {
+            synchronized (AsyncLMLFacadeImpl.class) {
+                result = defaultExecutor;
+                if (result == null) {
+                    result = createExecutor();
+                    defaultExecutor = result;
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method creates the shared executor as configured in the connection settings file.
+     * 
+     * @return executor
+     */
+    private static ExecutorService createExecutor() {
+        
+        String type = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_ASYNC_EXECUTOR, ASYNC_EXECUTOR_FIXED);
+        
+        if (ASYNC_EXECUTOR_VIRTUAL.equalsIgnoreCase(type)) {
+            try {
+                // Looked up by reflection so the library still runs on JVMs without virtual threads
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (Exception ex) {
+                logger.log(Level.WARNING, "AsyncLMLFacadeImpl::createExecutor -> Virtual threads are not available. " +
+                        "Using a fixed thread pool.", ex);
+            }
+        }
+        
+        String poolSize = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_POOL_SIZE, "1");
+        String maxSize = LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_POOL_MAX_SIZE, poolSize);
+        int threads = Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_ASYNC_THREADS, maxSize));
+        // The priority queue cannot be bounded, so the tasks waiting in it are counted apart
+        final Semaphore queueCapacity = new Semaphore(Math.max(1, Integer.parseInt(LMLGlobalOperations.getConnectionSetting(
+                CONNECTION_SETTINGS_ASYNC_QUEUE_SIZE, String.valueOf(DEFAULT_ASYNC_QUEUE_SIZE)))));
+        
+        // Only this class submits tasks to it, so every queued task is a PrioritizedTask
+        return new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0L, TimeUnit.MILLISECONDS, 
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+            public Thread newThread(Runnable task) {
+                Thread result = new Thread(task, "lml-async-" + counter.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        }) {
+            public void execute(Runnable task) {
+                if (!queueCapacity.tryAcquire()) {
+                    getRejectedExecutionHandler().rejectedExecution(task, this);
+                    return;
+                }
+                try {
+                    super.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    queueCapacity.release();
+                    throw ex;
+                }
+            }
+            protected void beforeExecute(Thread thread, Runnable task) {
+                // The task has left the queue
+                queueCapacity.release();
+                super.beforeExecute(thread, task);
+            }
+        };
+    }
+    
+    /**
+     * This class represents an action queued in the shared executor. Tasks are ordered by 
+     * submission time, delayed by the starvation threshold once per priority level below 
+     * <code>HIGH</code>: a low priority task goes ahead of the high priority ones submitted 
+     * more than two thresholds after it.
+     */
+    private static abstract class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        
+        private static volatile Long agingNanos;
+        
+        private final long rank;
+        
+        private final long sequence = taskCounter.getAndIncrement();
+        
+        PrioritizedTask(Priority priority) {
+            long aging = getAgingNanos();
+            // Without threshold, tasks are just ordered by priority
+            this.rank = (aging > 0) ? System.nanoTime() + priority.ordinal() * aging : priority.ordinal();
+        }
+        
+        public int compareTo(PrioritizedTask other) {
+            long difference = rank - other.rank;
+            if (difference == 0) {
+                difference = sequence - other.sequence;
+            }
+            return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+        }
+        
+        private static long getAgingNanos() {
+            Long result = agingNanos;
+            if (result == null) {
+                result = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(LMLGlobalOperations.getConnectionSetting(
+                        CONNECTION_SETTINGS_POOL_STARVATION_THRESHOLD, String.valueOf(DEFAULT_POOL_STARVATION_THRESHOLD))));
+                agingNanos = result;
+            }
+            return result;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,62 @@
+package org.paquitosoft.lml.model.facade;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ *  This interface exposes the behaviour of the asynchronous version of the library public facade.
+ *  Every method returns at once; the operation is executed by an executor and its result
+ *  (or the <code>InternalErrorException</code> it threw, wrapped in a <code>CompletionException</code>)
+ *  is delivered through the returned future.
+ * 
+ * @author paquitosoft
+ */
+public interface IAsyncLMLFacade {
+
+    /**
+     * This method is used to save an entity in the database.
+     * 
+     * @param entity
+     * @return future of the saved entity
+     */
+    <T> CompletableFuture<T> save(T entity);
+    
+    /**
+     * This method reads an entity from the database. detailLevel param determines the 
+     * amount of related info that must be read.
+     * 
+     * @param entityType
+     * @param entityId
+     * @param detailLevel
+     * @return future of the entity read
+     */
+    <T> CompletableFuture<T> read(Class<T> entityType, Object entityId, Integer detailLevel);
+    
+    /**
+     * This method updates the information from an entity in the database.
+     * 
+     * @param entity
+     * @return future of the udpated entity
+     */
+    <T> CompletableFuture<T> update(T entity);
+    
+    /**
+     * This method removes an entity from the database.
+     * 
+     * @param entity
+     * @return future of the removed entity
+     */
+    <T> CompletableFuture<T> remove(T entity);
+    
+    /**
+     * This methods executes a custom query with provided parameters.
+     * 
+     * @param query
+     * @param entityType
+     * @param detailLevel
+     * @param params
+     * @return future of the collection of entities
+     */
+    <T> CompletableFuture<List<T>> finder(String query, Class<T> entityType, Integer detailLevel, Object ... params);
+    
+}
@@ -1,6 +1,8 @@
 package org.paquitosoft.lml.model.facade;
 
+import java.util.Collection;
 import java.util.List;
+import org.paquitosoft.lml.model.dao.InsertStrategy;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 
 /**
@@ -19,6 +21,28 @@ public interface ILMLFacade {
      */
     <T> T save(T entity) throws InternalErrorException;
     
+    /**
+     * This method is used to save a collection of entities in the database in batches, 
+     * all of them in the same transaction (one per connection provider they are routed to).
+     * 
+     * @param entities
+     * @return saved entities (in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException, ReflectionException)
+     */
+    <T> List<T> saveAll(Collection<T> entities) throws InternalErrorException;
+    
+    /**
+     * This method is used to save a collection of entities in the database, all of them 
+     * in the same transaction (one per connection provider they are routed to), choosing 
+     * how they are sent to it.
+     * 
+     * @param entities
+     * @param strategy
+     * @return saved entities (in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException, ReflectionException)
+     */
+    <T> List<T> saveAll(Collection<T> entities, InsertStrategy strategy) throws InternalErrorException;
+    
      /**
      * This method reads an entity from the database. detailLevel param determines the 
      * amount of related info that must be read.
@@ -40,6 +64,36 @@ public interface ILMLFacade {
      */
     <T> T update(T entity) throws InternalErrorException;
     
+    /**
+     * This method updates a collection of entities in batches, all of them 
+     * in the same transaction (one per connection provider they are routed to).
+     * 
+     * @param entities
+     * @return number of updated records (entities not found in the database are not counted)
+     * @throws InternalErrorException (ReflectionException)
+     */
+    <T> int updateAll(Collection<T> entities) throws InternalErrorException;
+    
+    /**
+     * This method saves an entity or, when its identifier is already in the database, 
+     * updates it, with a single statement.
+     * 
+     * @param entity
+     * @return saved or updated entity
+     * @throws InternalErrorException (ReflectionException)
+     */
+    <T> T saveOrUpdate(T entity) throws InternalErrorException;
+    
+    /**
+     * This method saves or updates a collection of entities in batches, all of them 
+     * in the same transaction (one per connection provider they are routed to).
+     * 
+     * @param entities
+     * @return saved or updated entities (in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException, ReflectionException)
+     */
+    <T> List<T> saveOrUpdateAll(Collection<T> entities) throws InternalErrorException;
+    
      /**
      * This method removes an entity from the database.
      * 
@@ -50,6 +104,18 @@ public interface ILMLFacade {
      */
     <T> T remove(T entity) throws InternalErrorException;
     
+    /**
+     * This method removes many entities of the same type by their identifiers, all of them 
+     * in the same transaction (one per connection provider they are routed to). 
+     * Associated entities are not removed.
+     * 
+     * @param entityType
+     * @param entityIds
+     * @return number of removed records (identifiers not found in the database are not counted)
+     * @throws InternalErrorException (ReflectionException)
+     */
+    <T> int removeAll(Class<T> entityType, Collection<?> entityIds) throws InternalErrorException;
+    
     /**
      * 
      * @param query
@@ -0,0 +1,71 @@
+package org.paquitosoft.lml.model.facade;
+
+import java.util.List;
+import org.paquitosoft.lml.model.action.IAction;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This interface exposes a unit of work: operations are queued and executed
+ *  together, with one connection and one transaction, when the session is committed.
+ *  <br/>
+ *  Sessions are not thread safe; every thread should use its own one.
+ * 
+ * @author paquitosoft
+ */
+public interface ILMLSession {
+
+    /**
+     * This method queues the creation of an entity.
+     * 
+     * @param entity
+     * @return this session
+     */
+    <T> ILMLSession save(T entity);
+    
+    /**
+     * This method queues the update of an entity.
+     * 
+     * @param entity
+     * @return this session
+     */
+    <T> ILMLSession update(T entity);
+    
+    /**
+     * This method queues the removal of an entity.
+     * 
+     * @param entity
+     * @return this session
+     */
+    <T> ILMLSession remove(T entity);
+    
+    /**
+     * This method queues any other action.
+     * 
+     * @param action
+     * @return this session
+     */
+    ILMLSession add(IAction action);
+    
+    /**
+     * This method returns how many operations are waiting to be committed.
+     * 
+     * @return pending operations
+     */
+    int size();
+    
+    /**
+     * This method executes every queued operation (in the order they were queued) 
+     * in a single transaction and empties the queue. If any of them fails, the whole 
+     * transaction is rolled back and the operations are discarded.
+     * 
+     * @return list with the result of every operation (in the same order)
+     * @throws InternalErrorException (DuplicateInstanceException, DataNotFoundException, ReflectionException)
+     */
+    List<Object> commit() throws InternalErrorException;
+    
+    /**
+     * This method discards every queued operation.
+     */
+    void clear();
+    
+}
@@ -0,0 +1,62 @@
+package org.paquitosoft.lml.model.facade;
+
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+
+/**
+ *  This interface exposes a write-behind queue: saved entities are not written at once, 
+ *  but queued and written in the background, many of them in a single transaction.
+ *  It is meant for high volume writes that can tolerate being lost (audit records, 
+ *  counters...): failures are only logged and counted.
+ *  <br/>
+ *  Queues are thread safe.
+ * 
+ * @author paquitosoft
+ */
+public interface ILMLWriteBehindQueue {
+
+    /**
+     * This method queues an entity to be saved. When the queue is full, the caller 
+     * waits until there is room for it (up to <b>write.behind.offer.timeout</b> milliseconds).
+     * 
+     * @param entity
+     * @throws InternalErrorException when the queue is still full after waiting or it has been closed
+     */
+    void save(Object entity) throws InternalErrorException;
+    
+    /**
+     * This method waits until every entity queued before calling it has been written.
+     * 
+     * @throws InternalErrorException when interrupted while waiting
+     */
+    void flush() throws InternalErrorException;
+    
+    /**
+     * This method writes every queued entity and stops the background writer. 
+     * Entities cannot be queued afterwards.
+     * 
+     * @throws InternalErrorException when interrupted while waiting
+     */
+    void close() throws InternalErrorException;
+    
+    /**
+     * This method returns how many entities are waiting to be written.
+     * 
+     * @return pending entities
+     */
+    int getPendingCount();
+    
+    /**
+     * This method returns how many entities have been written.
+     * 
+     * @return written entities
+     */
+    long getWrittenCount();
+    
+    /**
+     * This method returns how many entities could not be written.
+     * 
+     * @return failed entities
+     */
+    long getFailedCount();
+    
+}
@@ -1,5 +1,9 @@
 package org.paquitosoft.lml.model.facade;
 
+import java.util.concurrent.Executor;
+import org.paquitosoft.lml.model.action.ActionProcessor;
+import org.paquitosoft.lml.model.action.connection.Priority;
+
 /**
  *  This class is used to create instances of library public facade.
  * 
@@ -16,4 +20,100 @@ public class LMLFacadeFactory {
         return new LMLFacadeImpl();
     }
     
+    /**
+     * This method returns a brand new instance of LML facade whose operations 
+     * time out after the given milliseconds.
+     * 
+     * @param timeout (0 means no limit)
+     * @return LML facade
+     */
+    public static ILMLFacade createLMLFacade(long timeout) {
+        return new LMLFacadeImpl(timeout);
+    }
+    
+    /**
+     * This method returns a brand new instance of LML facade whose operations get their 
+     * connections with the given priority (e.g. <code>LOW</code> for batch jobs).
+     * 
+     * @param priority
+     * @return LML facade
+     */
+    public static ILMLFacade createLMLFacade(Priority priority) {
+        return new LMLFacadeImpl(ActionProcessor.getDefaultTimeout(), priority);
+    }
+    
+    /**
+     * This method returns a brand new unit of work (see <code>ILMLSession</code>).
+     * 
+     * @return LML session
+     */
+    public static ILMLSession createLMLSession() {
+        return new LMLSessionImpl();
+    }
+    
+    /**
+     * This method returns a brand new unit of work whose commits time out after the 
+     * given milliseconds and get their connection with the given priority.
+     * 
+     * @param timeout (0 means no limit)
+     * @param priority
+     * @return LML session
+     */
+    public static ILMLSession createLMLSession(long timeout, Priority priority) {
+        return new LMLSessionImpl(timeout, priority);
+    }
+    
+    /**
+     * This method returns an asynchronous facade that executes actions in the 
+     * shared executor configured in the <b>lml-conn-settings</b> file.
+     * 
+     * @return asynchronous LML facade
+     */
+    public static IAsyncLMLFacade createAsyncLMLFacade() {
+        return new AsyncLMLFacadeImpl();
+    }
+    
+    /**
+     * This method returns an asynchronous facade that executes actions in the given executor.
+     * 
+     * @param executor
+     * @return asynchronous LML facade
+     */
+    public static IAsyncLMLFacade createAsyncLMLFacade(Executor executor) {
+        return new AsyncLMLFacadeImpl(executor);
+    }
+    
+    /**
+     * This method returns an asynchronous facade that executes actions in the given 
+     * executor and times them out after the given milliseconds.
+     * 
+     * @param executor
+     * @param timeout (0 means no limit)
+     * @return asynchronous LML facade
+     */
+    public static IAsyncLMLFacade createAsyncLMLFacade(Executor executor, long timeout) {
+        return new AsyncLMLFacadeImpl(executor, timeout);
+    }
+    
+    /**
+     * This method returns an asynchronous facade that executes actions in the shared 
+     * executor with the given priority.
+     * 
+     * @param priority
+     * @return asynchronous LML facade
+     */
+    public static IAsyncLMLFacade createAsyncLMLFacade(Priority priority) {
+        return new AsyncLMLFacadeImpl(AsyncLMLFacadeImpl.getDefaultExecutor(), ActionProcessor.getDefaultTimeout(), priority);
+    }
+    
+    /**
+     * This method returns a brand new write-behind queue configured with the 
+     * <b>lml-conn-settings</b> file. It must be closed when no longer needed.
+     * 
+     * @return write-behind queue
+     */
+    public static ILMLWriteBehindQueue createWriteBehindQueue() {
+        return new LMLWriteBehindQueueImpl();
+    }
+    
 }
@@ -1,21 +1,70 @@
 package org.paquitosoft.lml.model.facade;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.paquitosoft.lml.model.action.ActionProcessor;
 import org.paquitosoft.lml.model.action.FindEntitiesAction;
 import org.paquitosoft.lml.model.action.IAction;
+import org.paquitosoft.lml.model.action.IRoutableAction;
 import org.paquitosoft.lml.model.action.PersistAction;
+import org.paquitosoft.lml.model.action.PersistAllAction;
+import org.paquitosoft.lml.model.action.Propagation;
 import org.paquitosoft.lml.model.action.ReadEntityAction;
+import org.paquitosoft.lml.model.action.RemoveAllAction;
+import org.paquitosoft.lml.model.action.connection.Priority;
+import org.paquitosoft.lml.model.dao.InsertStrategy;
+import org.paquitosoft.lml.model.exception.BatchDuplicateInstanceException;
 import org.paquitosoft.lml.model.exception.InternalErrorException;
 import static org.paquitosoft.lml.util.LMLConstants.*;
 
 /**
  *  This is the actual implementation class of public methods of this library.
+ *  <br/>
+ *  Operations on collections are split by the connection provider every element is routed to: 
+ *  each part is executed (and committed) on its own provider, so a collection is only written 
+ *  in a single transaction when all its elements live in the same provider.
  * 
  * @author paquitosoft
  */
 public class LMLFacadeImpl implements ILMLFacade {
 
+    private long timeout;
+    
+    private Priority priority;
+    
+    /**
+     * Constructor. Operations use the default action timeout (see <code>ActionProcessor</code>).
+     */
+    public LMLFacadeImpl() {
+        this(ActionProcessor.getDefaultTimeout());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param timeout milliseconds every operation may take, including the related entities 
+     *          it reads or persists (0 means no limit)
+     */
+    public LMLFacadeImpl(long timeout) {
+        this(timeout, Priority.NORMAL);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param timeout milliseconds every operation may take, including the related entities 
+     *          it reads or persists (0 means no limit)
+     * @param priority priority operations get their connections with
+     */
+    public LMLFacadeImpl(long timeout, Priority priority) {
+        this.timeout = timeout;
+        this.priority = priority;
+    }
+
     /**
      * This method is used to save an entity in the database.
      * 
@@ -25,7 +74,33 @@ public class LMLFacadeImpl implements ILMLFacade {
      */
     public <T> T save(T entity) throws InternalErrorException {
         IAction action = new PersistAction(entity, PERSIST_MODE_SAVE);
-        return (T) new ActionProcessor(action).processAction();
+        return (T) new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
+    }
+    
+    /**
+     * This method is used to save a collection of entities in the database in batches, 
+     * all of them in the same transaction (one per connection provider they are routed to).
+     * 
+     * @param entities
+     * @return saved entities (in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException, ReflectionException)
+     */
+    public <T> List<T> saveAll(Collection<T> entities) throws InternalErrorException {
+        return saveAll(entities, InsertStrategy.BATCH);
+    }
+    
+    /**
+     * This method is used to save a collection of entities in the database, all of them 
+     * in the same transaction (one per connection provider they are routed to), choosing 
+     * how they are sent to it.
+     * 
+     * @param entities
+     * @param strategy
+     * @return saved entities (in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException, ReflectionException)
+     */
+    public <T> List<T> saveAll(Collection<T> entities, InsertStrategy strategy) throws InternalErrorException {
+        return persistAll(entities, PERSIST_MODE_SAVE, strategy);
     }
     
     /**
@@ -40,7 +115,7 @@ public class LMLFacadeImpl implements ILMLFacade {
      */
     public <T> T read(Class<T> entityType, Object entityId, Integer detailLevel) throws InternalErrorException {
         IAction action = new ReadEntityAction(entityType, entityId, detailLevel);
-        return (T) new ActionProcessor(action).processAction();
+        return (T) new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
     }
  
     /**
@@ -52,7 +127,52 @@ public class LMLFacadeImpl implements ILMLFacade {
      */
     public <T> T update(T entity) throws InternalErrorException {
         IAction action = new PersistAction(entity, PERSIST_MODE_UPDATE);
-        return (T) new ActionProcessor(action).processAction();
+        return (T) new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
+    }
+    
+    /**
+     * This method updates a collection of entities in batches, all of them 
+     * in the same transaction (one per connection provider they are routed to).
+     * 
+     * @param entities
+     * @return number of updated records (entities not found in the database are not counted)
+     * @throws InternalErrorException (ReflectionException)
+     */
+    public <T> int updateAll(Collection<T> entities) throws InternalErrorException {
+        
+        List<T> list = new ArrayList<T>(entities);
+        int result = 0;
+        
+        for (List<Integer> rows : splitByProvider(getPersistActions(list, PERSIST_MODE_UPDATE)).values()) {
+            result += (Integer) process(new PersistAllAction<T>(getElements(list, rows), PERSIST_MODE_UPDATE));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method saves an entity or, when its identifier is already in the database, 
+     * updates it, with a single statement.
+     * 
+     * @param entity
+     * @return saved or updated entity
+     * @throws InternalErrorException (ReflectionException)
+     */
+    public <T> T saveOrUpdate(T entity) throws InternalErrorException {
+        IAction action = new PersistAction(entity, PERSIST_MODE_SAVE_OR_UPDATE);
+        return (T) new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
+    }
+    
+    /**
+     * This method saves or updates a collection of entities in batches, all of them 
+     * in the same transaction (one per connection provider they are routed to).
+     * 
+     * @param entities
+     * @return saved or updated entities (in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException, ReflectionException)
+     */
+    public <T> List<T> saveOrUpdateAll(Collection<T> entities) throws InternalErrorException {
+        return persistAll(entities, PERSIST_MODE_SAVE_OR_UPDATE, InsertStrategy.BATCH);
     }
     
     /**
@@ -65,7 +185,33 @@ public class LMLFacadeImpl implements ILMLFacade {
      */
     public <T> T remove(T entity) throws InternalErrorException {
         IAction action = new PersistAction(entity, PERSIST_MODE_DELETE);
-        return (T) new ActionProcessor(action).processAction();
+        return (T) new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
+    }
+    
+    /**
+     * This method removes many entities of the same type by their identifiers, all of them 
+     * in the same transaction (one per connection provider they are routed to). 
+     * Associated entities are not removed.
+     * 
+     * @param entityType
+     * @param entityIds
+     * @return number of removed records (identifiers not found in the database are not counted)
+     * @throws InternalErrorException (ReflectionException)
+     */
+    public <T> int removeAll(Class<T> entityType, Collection<?> entityIds) throws InternalErrorException {
+        
+        List<Object> ids = new ArrayList<Object>(entityIds);
+        List<IRoutableAction> actions = new ArrayList<IRoutableAction>(ids.size());
+        for (Object entityId : ids) {
+            actions.add(new RemoveAllAction<T>(entityType, Collections.singletonList(entityId)));
+        }
+        int result = 0;
+        
+        for (List<Integer> rows : splitByProvider(actions).values()) {
+            result += (Integer) process(new RemoveAllAction<T>(entityType, getElements(ids, rows)));
+        }
+        
+        return result;
     }
     
     /**
@@ -79,7 +225,125 @@ public class LMLFacadeImpl implements ILMLFacade {
      */
     public <T> List<T> finder(String query, Class<T> entityType, Integer detailLevel, Object ... params) throws InternalErrorException {
         IAction action = new FindEntitiesAction(query, entityType, detailLevel, params);
-        return new ActionProcessor(action).processAction();
+        return new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
+    }
+    
+    /**
+     * This method executes an action with the timeout and priority of this facade.
+     * 
+     * @param action
+     * @return the result of executing the action
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private Object process(IAction action) throws InternalErrorException {
+        return new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
+    }
+    
+    /**
+     * This method saves (or saves or updates) a collection of entities with a 
+     * <code>PersistAllAction</code> per connection provider.
+     * 
+     * @param entities
+     * @param mode
+     * @param strategy
+     * @return persisted entities (in the same order)
+     * @throws InternalErrorException (BatchDuplicateInstanceException, ReflectionException)
+     */
+    private <T> List<T> persistAll(Collection<T> entities, byte mode, InsertStrategy strategy) 
+            throws InternalErrorException {
+        
+        List<T> result = new ArrayList<T>(entities);
+        Map<String,List<Integer>> parts = splitByProvider(getPersistActions(result, mode));
+        
+        for (List<Integer> rows : parts.values()) {
+            List<T> part = getElements(result, rows);
+            if (parts.size() == 1) {
+                return (List<T>) process(new PersistAllAction<T>(part, mode, strategy));
+            }
+            try {
+                List<T> persisted = (List<T>) process(new PersistAllAction<T>(part, mode, strategy));
+                for (int i = 0; i < rows.size(); i++) {
+                    result.set(rows.get(i), persisted.get(i));
+                }
+            } catch (BatchDuplicateInstanceException e) {
+                throw getBatchException(e, rows);
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method builds the action that would persist every entity on its own, to route it.
+     * 
+     * @param entities
+     * @param mode
+     * @return one action per entity (in the same order)
+     */
+    private List<IRoutableAction> getPersistActions(List<?> entities, byte mode) {
+        List<IRoutableAction> result = new ArrayList<IRoutableAction>(entities.size());
+        for (Object entity : entities) {
+            result.add(new PersistAction(entity, mode));
+        }
+        return result;
+    }
+    
+    /**
+     * This method splits the elements of a collection by the connection provider they are routed to.
+     * 
+     * @param actions one action per element (in the same order as the collection)
+     * @return positions of the elements per provider name (empty when there are no elements)
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private Map<String,List<Integer>> splitByProvider(List<IRoutableAction> actions) throws InternalErrorException {
+        
+        Map<String,List<Integer>> result = new LinkedHashMap<String,List<Integer>>();
+        for (int i = 0; i < actions.size(); i++) {
+            String providerName = ActionProcessor.getRoutingStrategy().getProviderName(actions.get(i));
+            if (providerName == null) {
+                providerName = DEFAULT_CONNECTION_PROVIDER;
+            }
+            List<Integer> rows = result.get(providerName);
+            if (rows == null) {
+                rows = new ArrayList<Integer>();
+                result.put(providerName, rows);
+            }
+            rows.add(i);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method gets the elements of a list at the given positions.
+     * 
+     * @param elements
+     * @param rows
+     * @return elements (in the same order as the positions)
+     */
+    private static <T> List<T> getElements(List<T> elements, List<Integer> rows) {
+        List<T> result = new ArrayList<T>(rows.size());
+        for (Integer row : rows) {
+            result.add(elements.get(row));
+        }
+        return result;
+    }
+    
+    /**
+     * This method translates the rows of a batch exception thrown for a part of a collection 
+     * into positions of the whole collection.
+     * 
+     * @param e exception thrown for the part
+     * @param rows positions of the part in the collection
+     * @return exception with the positions in the collection
+     */
+    private static BatchDuplicateInstanceException getBatchException(BatchDuplicateInstanceException e, List<Integer> rows) {
+        List<Integer> failedRows = new ArrayList<Integer>(e.getRows().size());
+        for (Integer row : e.getRows()) {
+            failedRows.add(rows.get(row));
+        }
+        return new BatchDuplicateInstanceException("LMLFacadeImpl::persistAll -> The entities at rows " + failedRows + 
+                " are already in the database!", failedRows, e.getEntities(), e);
     }
     
 }
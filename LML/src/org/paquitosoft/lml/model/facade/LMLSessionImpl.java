@@ -0,0 +1,83 @@
+package org.paquitosoft.lml.model.facade;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.paquitosoft.lml.model.action.ActionProcessor;
+import org.paquitosoft.lml.model.action.IAction;
+import org.paquitosoft.lml.model.action.PersistAction;
+import org.paquitosoft.lml.model.action.Propagation;
+import org.paquitosoft.lml.model.action.UnitOfWorkAction;
+import org.paquitosoft.lml.model.action.connection.Priority;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+
+/**
+ *  This is the implementation of the unit of work. Queued operations are executed 
+ *  as a <code>UnitOfWorkAction</code>, so they share one connection and one commit.
+ * 
+ * @author paquitosoft
+ */
+public class LMLSessionImpl implements ILMLSession {
+
+    private List<IAction> actions = new ArrayList<IAction>();
+    
+    private long timeout;
+    
+    private Priority priority;
+    
+    /**
+     * Constructor. Commits use the default action timeout (see <code>ActionProcessor</code>).
+     */
+    public LMLSessionImpl() {
+        this(ActionProcessor.getDefaultTimeout(), Priority.NORMAL);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param timeout milliseconds a commit may take (0 means no limit)
+     * @param priority priority commits get their connections with
+     */
+    public LMLSessionImpl(long timeout, Priority priority) {
+        this.timeout = timeout;
+        this.priority = priority;
+    }
+    
+    public <T> ILMLSession save(T entity) {
+        return add(new PersistAction(entity, PERSIST_MODE_SAVE));
+    }
+    
+    public <T> ILMLSession update(T entity) {
+        return add(new PersistAction(entity, PERSIST_MODE_UPDATE));
+    }
+    
+    public <T> ILMLSession remove(T entity) {
+        return add(new PersistAction(entity, PERSIST_MODE_DELETE));
+    }
+    
+    public ILMLSession add(IAction action) {
+        actions.add(action);
+        return this;
+    }
+    
+    public int size() {
+        return actions.size();
+    }
+    
+    public List<Object> commit() throws InternalErrorException {
+        
+        if (actions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        IAction action = new UnitOfWorkAction(actions);
+        actions.clear();
+        return new ActionProcessor(action, Propagation.REQUIRED, timeout, priority).processAction();
+    }
+    
+    public void clear() {
+        actions.clear();
+    }
+    
+}
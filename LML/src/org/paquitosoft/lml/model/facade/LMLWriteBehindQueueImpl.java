@@ -0,0 +1,371 @@
+package org.paquitosoft.lml.model.facade;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.paquitosoft.lml.model.action.ActionProcessor;
+import org.paquitosoft.lml.model.action.IAction;
+import org.paquitosoft.lml.model.action.PersistAction;
+import org.paquitosoft.lml.model.action.PersistAllAction;
+import org.paquitosoft.lml.model.action.Propagation;
+import org.paquitosoft.lml.model.action.UnitOfWorkAction;
+import org.paquitosoft.lml.model.action.connection.Priority;
+import org.paquitosoft.lml.model.exception.InternalErrorException;
+import org.paquitosoft.lml.model.util.ModelUtilities;
+import static org.paquitosoft.lml.util.LMLConstants.*;
+import org.paquitosoft.lml.util.LMLGlobalOperations;
+
+/**
+ *  This is the implementation of the write-behind queue.
+ *  Entities are kept in a bounded queue (<b>lml.connection.settings.write.behind.queue.size</b>)
+ *  and a background thread writes them in groups: a group is written once it holds
+ *  <b>write.behind.batch.size</b> entities or <b>write.behind.flush.interval</b> milliseconds
+ *  after its first entity was queued.
+ *  <br/>
+ *  Every group is split by the connection provider its entities are routed to and written as 
+ *  a <code>UnitOfWorkAction</code> (one connection, one commit per provider) holding a 
+ *  <code>PersistAllAction</code> per entity class, so entities are inserted with JDBC batches.
+ *  When that transaction fails, its entities are saved one by one, so a single bad entity
+ *  does not discard the rest. Identifiers generated inside the failed transaction are cleared
+ *  first: it was rolled back, so they will be generated again.
+ *  Entities that cannot be routed are discarded on their own.
+ *  <br/>
+ *  Groups are written with <code>LOW</code> priority, so online requests get connections first.
+ *
+ * @author paquitosoft
+ */
+public class LMLWriteBehindQueueImpl implements ILMLWriteBehindQueue {
+
+    private static Logger logger = Logger.getLogger(LMLWriteBehindQueueImpl.class.getName());
+
+    private final BlockingQueue<Object> queue;
+
+    private final int batchSize;
+
+    private final long flushInterval;
+
+    private final long offerTimeout;
+
+    // Held while writing, so flushes wait for the group the background thread is writing
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final Condition groupWritten = writeLock.newCondition();
+
+    private final AtomicLong queued = new AtomicLong(0);
+
+    private final AtomicLong processed = new AtomicLong(0);
+
+    private final AtomicLong written = new AtomicLong(0);
+
+    private final AtomicLong failed = new AtomicLong(0);
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor. The queue is configured with the connection settings file.
+     */
+    public LMLWriteBehindQueueImpl() {
+        this(Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_WRITE_BEHIND_QUEUE_SIZE,
+                    String.valueOf(DEFAULT_WRITE_BEHIND_QUEUE_SIZE))),
+             Integer.parseInt(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_WRITE_BEHIND_BATCH_SIZE,
+                    String.valueOf(DEFAULT_WRITE_BEHIND_BATCH_SIZE))),
+             Long.parseLong(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_WRITE_BEHIND_FLUSH_INTERVAL,
+                    String.valueOf(DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL))),
+             Long.parseLong(LMLGlobalOperations.getConnectionSetting(CONNECTION_SETTINGS_WRITE_BEHIND_OFFER_TIMEOUT,
+                    String.valueOf(DEFAULT_WRITE_BEHIND_OFFER_TIMEOUT))));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param queueSize maximum number of queued entities
+     * @param batchSize maximum number of entities written in the same group
+     * @param flushInterval milliseconds an entity waits for others to fill its group
+     * @param offerTimeout milliseconds a caller waits for room in a full queue
+     */
+    public LMLWriteBehindQueueImpl(int queueSize, int batchSize, long flushInterval, long offerTimeout) {
+        this.queue = new ArrayBlockingQueue<Object>(queueSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = flushInterval;
+        this.offerTimeout = offerTimeout;
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                writeInBackground();
+            }
+        }, "lml-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void save(Object entity) throws InternalErrorException {
+
+        if (closed) {
+            throw new InternalErrorException("LMLWriteBehindQueueImpl::save -> The queue has been closed.");
+        }
+
+        try {
+            if (!queue.offer(entity, offerTimeout, TimeUnit.MILLISECONDS)) {
+                throw new InternalErrorException("LMLWriteBehindQueueImpl::save -> The queue is still full after " +
+                        offerTimeout + " milliseconds.");
+            }
+            queued.incrementAndGet();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("LMLWriteBehindQueueImpl::save -> Interrupted while waiting for room in the queue.", ex);
+        }
+    }
+
+    public void flush() throws InternalErrorException {
+
+        long target = queued.get();
+
+        writeLock.lock();
+        try {
+            // Write what is still queued ourselves instead of waiting for the background thread
+            List<Object> group = new ArrayList<Object>(batchSize);
+            while (processed.get() < target && queue.drainTo(group, batchSize) > 0) {
+                writeGroup(group);
+                group.clear();
+            }
+            // The background thread may still be holding a group it took before we got the lock
+            while (processed.get() < target) {
+                groupWritten.await(flushInterval, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("LMLWriteBehindQueueImpl::flush -> Interrupted while waiting for the queue to be written.", ex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void close() throws InternalErrorException {
+        closed = true;
+        flush();
+        writer.interrupt();
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * This method is run by the background thread: it gathers groups of entities and writes them.
+     */
+    private void writeInBackground() {
+
+        List<Object> group = new ArrayList<Object>(batchSize);
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Object first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                // Wait for the group to be full, but no longer than the flush interval
+                group.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                while (group.size() < batchSize) {
+                    queue.drainTo(group, batchSize - group.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (group.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Object next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException ex) {
+                // Closed: write whatever we hold and leave once the queue is empty
+            }
+
+            if (!group.isEmpty()) {
+                writeLock.lock();
+                try {
+                    writeGroup(group);
+                } catch (RuntimeException ex) {
+                    // Keep the writer alive, otherwise queued entities would never be written
+                    logger.log(Level.SEVERE, "LMLWriteBehindQueueImpl::writeInBackground -> Unexpected error while " +
+                            "writing a group of " + group.size() + " entities.", ex);
+                } finally {
+                    writeLock.unlock();
+                }
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * This method writes a group of entities (the caller must hold the write lock).
+     *
+     * @param group
+     */
+    private void writeGroup(List<Object> group) {
+
+        try {
+            for (Map<Class,List<Object>> entities : splitByProvider(group).values()) {
+                List<IAction> actions = new ArrayList<IAction>(entities.size());
+                List<Object> unassigned = new ArrayList<Object>();
+                int count = 0;
+                for (List<Object> classEntities : entities.values()) {
+                    actions.add(new PersistAllAction<Object>(classEntities, PERSIST_MODE_SAVE));
+                    count += classEntities.size();
+                    for (Object entity : classEntities) {
+                        if (!hasIdentifier(entity)) {
+                            unassigned.add(entity);
+                        }
+                    }
+                }
+                try {
+                    process(new UnitOfWorkAction(actions));
+                    written.addAndGet(count);
+                } catch (InternalErrorException ex) {
+                    logger.log(Level.WARNING, "LMLWriteBehindQueueImpl::writeGroup -> Could not write a group of " +
+                            count + " entities. Writing them one by one.", ex);
+                    clearIdentifiers(unassigned);
+                    writeOneByOne(entities);
+                } catch (RuntimeException ex) {
+                    logger.log(Level.WARNING, "LMLWriteBehindQueueImpl::writeGroup -> Could not write a group of " +
+                            count + " entities. Writing them one by one.", ex);
+                    clearIdentifiers(unassigned);
+                    writeOneByOne(entities);
+                }
+            }
+        } finally {
+            processed.addAndGet(group.size());
+            groupWritten.signalAll();
+        }
+    }
+
+    /**
+     * This method saves every entity in its own transaction, counting the failures.
+     *
+     * @param entities entities per class
+     */
+    private void writeOneByOne(Map<Class,List<Object>> entities) {
+        for (List<Object> classEntities : entities.values()) {
+            for (Object entity : classEntities) {
+                try {
+                    process(new PersistAction(entity, PERSIST_MODE_SAVE));
+                    written.incrementAndGet();
+                } catch (InternalErrorException ex) {
+                    failed.incrementAndGet();
+                    logger.log(Level.SEVERE, "LMLWriteBehindQueueImpl::writeOneByOne -> Could not write an entity. " +
+                            "It has been discarded.", ex);
+                } catch (RuntimeException ex) {
+                    failed.incrementAndGet();
+                    logger.log(Level.SEVERE, "LMLWriteBehindQueueImpl::writeOneByOne -> Could not write an entity. " +
+                            "It has been discarded.", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method tells whether an entity had an identifier before being written.
+     *
+     * @param entity
+     * @return <b>false</b> when its identifier is generated (by the library or the database) while saving it
+     */
+    private boolean hasIdentifier(Object entity) {
+        try {
+            return ModelUtilities.getEntityIdentifier(entity) != null;
+        } catch (InternalErrorException ex) {
+            // It will fail again when written one by one
+            return true;
+        }
+    }
+
+    /**
+     * This method clears the identifiers generated for some entities inside a transaction 
+     * that was rolled back, so they are generated again when the entities are saved.
+     *
+     * @param entities
+     */
+    private void clearIdentifiers(List<Object> entities) {
+        for (Object entity : entities) {
+            try {
+                for (Field f : ModelUtilities.getEntityIdentifierFields(entity.getClass())) {
+                    f.setAccessible(true);
+                    f.set(entity, null);
+                }
+            } catch (IllegalAccessException ex) {
+                logger.log(Level.WARNING, "LMLWriteBehindQueueImpl::clearIdentifiers -> Could not clear the identifier " +
+                        "of an entity.", ex);
+            }
+        }
+    }
+
+    /**
+     * This method executes an action with low priority.
+     *
+     * @param action
+     * @throws org.paquitosoft.lml.model.exception.InternalErrorException
+     */
+    private void process(IAction action) throws InternalErrorException {
+        new ActionProcessor(action, Propagation.REQUIRED, ActionProcessor.getDefaultTimeout(), Priority.LOW).processAction();
+    }
+
+    /**
+     * This method splits a group by the connection provider its entities are routed to 
+     * and, for each provider, by entity class. Entities that cannot be routed are discarded.
+     *
+     * @param group
+     * @return entities per class per provider name
+     */
+    private Map<String,Map<Class,List<Object>>> splitByProvider(List<Object> group) {
+
+        Map<String,Map<Class,List<Object>>> result = new LinkedHashMap<String,Map<Class,List<Object>>>();
+        for (Object entity : group) {
+            String providerName;
+            try {
+                providerName = ActionProcessor.getRoutingStrategy().getProviderName(new PersistAction(entity, PERSIST_MODE_SAVE));
+            } catch (InternalErrorException ex) {
+                failed.incrementAndGet();
+                logger.log(Level.SEVERE, "LMLWriteBehindQueueImpl::splitByProvider -> Could not route an entity. " +
+                        "It has been discarded.", ex);
+                continue;
+            }
+            if (providerName == null) {
+                providerName = DEFAULT_CONNECTION_PROVIDER;
+            }
+            Map<Class,List<Object>> providerEntities = result.get(providerName);
+            if (providerEntities == null) {
+                providerEntities = new LinkedHashMap<Class,List<Object>>();
+                result.put(providerName, providerEntities);
+            }
+            List<Object> classEntities = providerEntities.get(entity.getClass());
+            if (classEntities == null) {
+                classEntities = new ArrayList<Object>();
+                providerEntities.put(entity.getClass(), classEntities);
+            }
+            classEntities.add(entity);
+        }
+
+        return result;
+    }
+
+}
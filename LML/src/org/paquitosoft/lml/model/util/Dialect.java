@@ -0,0 +1,51 @@
+package org.paquitosoft.lml.model.util;
+
+/**
+ *  This enum represents the databases whose native upsert statement the library knows 
+ *  (see <code>ModelUtilities.getQueryForUpsert</code>).
+ *  The dialect is taken from <b>lml.connection.settings.dialect</b> or, when it is not set, 
+ *  from the product name the driver reports.
+ * 
+ * @author paquitosoft
+ */
+public enum Dialect {
+    
+    POSTGRESQL, MYSQL, H2, ORACLE, SQLSERVER, HSQLDB, SQLITE, 
+    
+    /**
+     * Any other database: upserts are emulated with an update followed, when 
+     * no record was updated, by an insert.
+     */
+    UNKNOWN;
+    
+    /**
+     * This method gets the dialect of a database from the product name its driver reports 
+     * (<code>DatabaseMetaData.getDatabaseProductName</code>).
+     * 
+     * @param productName
+     * @return dialect (<code>UNKNOWN</code> when the database is not known)
+     */
+    public static Dialect fromProductName(String productName) {
+        
+        String name = (productName == null) ? "" : productName.toUpperCase();
+        
+        if (name.contains("POSTGRESQL")) {
+            return POSTGRESQL;
+        } else if (name.contains("MYSQL") || name.contains("MARIADB")) {
+            return MYSQL;
+        } else if (name.equals("H2")) {
+            return H2;
+        } else if (name.contains("ORACLE")) {
+            return ORACLE;
+        } else if (name.contains("SQL SERVER")) {
+            return SQLSERVER;
+        } else if (name.contains("HSQL")) {
+            return HSQLDB;
+        } else if (name.contains("SQLITE")) {
+            return SQLITE;
+        }
+        
+        return UNKNOWN;
+    }
+    
+}
@@ -13,6 +13,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.paquitosoft.lml.model.annotation.AssociationType;
@@ -37,6 +38,9 @@ public class ModelUtilities {
     private static HashMap<Class,String> deleteQueries = new HashMap<Class,String>();
     private static HashMap<Class,String> baseReadQueries = new HashMap<Class,String>();
     private static HashMap<String,String> joinFinderQueries = new HashMap<String,String>();
+    private static ConcurrentHashMap<String,String> multiRowInsertQueries = new ConcurrentHashMap<String,String>();
+    private static ConcurrentHashMap<String,String> multiRowDeleteQueries = new ConcurrentHashMap<String,String>();
+    private static ConcurrentHashMap<String,String> upsertQueries = new ConcurrentHashMap<String,String>();
 
     /**
      * Generates the query for creating and entity
@@ -77,6 +81,153 @@ public class ModelUtilities {
         return result;
     }
 
+    /**
+     * Generates the query for creating many entities at once: the insert query 
+     * with as many groups of values as rows.
+     * @param entityClass
+     * @param rows
+     * @return multi-row insert query
+     */
+    public static String getQueryForInsert(Class entityClass, int rows) {
+        
+        String queryId = entityClass.getName() + "*" + rows;
+        String result = multiRowInsertQueries.get(queryId);
+        
+        if (result == null) {
+            String query = getQueryForInsert(entityClass);
+            String values = query.substring(query.lastIndexOf('('));
+            StringBuilder sb = new StringBuilder(query.length() + (values.length() + 1) * (rows - 1));
+            sb.append(query);
+            for (int i = 1; i < rows; i++) {
+                sb.append(',');
+                sb.append(values);
+            }
+            result = sb.toString();
+            multiRowInsertQueries.put(queryId, result);
+            logger.log(Level.FINE, "Multi-row INSERT query generated for " + rows + " rows of " + entityClass.getName());
+        }
+        
+        return result;
+    }
+
+    /**
+     * Generates the query for creating an entity or updating it when its identifier is 
+     * already in the database, in the native syntax of the given dialect. Every persistent 
+     * field is a parameter, in the same order as <code>getAllPersistentEntityFields</code>.
+     * @param entityClass
+     * @param dialect
+     * @return upsert query (<b>null</b> when the dialect has no native upsert)
+     */
+    public static String getQueryForUpsert(Class entityClass, Dialect dialect) {
+        
+        if (Dialect.UNKNOWN.equals(dialect)) {
+            return null;
+        }
+        
+        String queryId = entityClass.getName() + "@" + dialect;
+        String result = upsertQueries.get(queryId);
+        
+        if (result == null) {
+            List<String> columns = new ArrayList<String>();
+            List<String> pkColumns = new ArrayList<String>();
+            List<String> valueColumns = new ArrayList<String>();
+            for (Field f : getAllPersistentEntityFields(entityClass)) {
+                columns.add(getColumnName(f));
+                if (isPKField(f)) {
+                    pkColumns.add(getColumnName(f));
+                } else {
+                    valueColumns.add(getColumnName(f));
+                }
+            }
+            String tableName = getTableName(entityClass);
+            
+            StringBuilder sb = new StringBuilder();
+            if (Dialect.ORACLE.equals(dialect) || Dialect.SQLSERVER.equals(dialect) || Dialect.HSQLDB.equals(dialect)) {
+                sb.append("MERGE INTO ").append(tableName).append(" LML_T USING (");
+                if (Dialect.ORACLE.equals(dialect)) {
+                    sb.append("SELECT ");
+                    appendColumns(sb, columns, "? %1$s", ", ");
+                    sb.append(" FROM DUAL) LML_S");
+                } else {
+                    sb.append("VALUES (");
+                    appendColumns(sb, columns, "?", ", ");
+                    sb.append(")) AS LML_S (");
+                    appendColumns(sb, columns, "%1$s", ", ");
+                    sb.append(")");
+                }
+                sb.append(" ON (");
+                appendColumns(sb, pkColumns, "LML_T.%1$s = LML_S.%1$s", " AND ");
+                sb.append(")");
+                if (!valueColumns.isEmpty()) {
+                    sb.append(" WHEN MATCHED THEN UPDATE SET ");
+                    appendColumns(sb, valueColumns, "%1$s = LML_S.%1$s", ", ");
+                }
+                sb.append(" WHEN NOT MATCHED THEN INSERT (");
+                appendColumns(sb, columns, "%1$s", ", ");
+                sb.append(") VALUES (");
+                appendColumns(sb, columns, "LML_S.%1$s", ", ");
+                sb.append(")");
+                if (Dialect.SQLSERVER.equals(dialect)) {
+                    sb.append(";"); // SQL Server requires MERGE statements to be terminated
+                }
+            } else if (Dialect.H2.equals(dialect)) {
+                sb.append("MERGE INTO ").append(tableName).append(" (");
+                appendColumns(sb, columns, "%1$s", ", ");
+                sb.append(") KEY (");
+                appendColumns(sb, pkColumns, "%1$s", ", ");
+                sb.append(") VALUES (");
+                appendColumns(sb, columns, "?", ", ");
+                sb.append(")");
+            } else {
+                sb.append("INSERT INTO ").append(tableName).append(" (");
+                appendColumns(sb, columns, "%1$s", ", ");
+                sb.append(") VALUES (");
+                appendColumns(sb, columns, "?", ", ");
+                sb.append(")");
+                if (Dialect.MYSQL.equals(dialect)) {
+                    sb.append(" ON DUPLICATE KEY UPDATE ");
+                    if (valueColumns.isEmpty()) {
+                        appendColumns(sb, pkColumns.subList(0, 1), "%1$s = %1$s", ", ");
+                    } else {
+                        appendColumns(sb, valueColumns, "%1$s = VALUES(%1$s)", ", ");
+                    }
+                } else {
+                    sb.append(" ON CONFLICT (");
+                    appendColumns(sb, pkColumns, "%1$s", ", ");
+                    if (valueColumns.isEmpty()) {
+                        sb.append(") DO NOTHING");
+                    } else {
+                        sb.append(") DO UPDATE SET ");
+                        appendColumns(sb, valueColumns, "%1$s = EXCLUDED.%1$s", ", ");
+                    }
+                }
+            }
+            result = sb.toString();
+            upsertQueries.put(queryId, result);
+            logger.log(Level.INFO, "UPSERT query generated (" + dialect + ") ->" + result + "<-");
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method appends a list of columns to a query, each one written with the given format 
+     * (where <i>%1$s</i> is the column name).
+     * 
+     * @param sb
+     * @param columns
+     * @param format
+     * @param separator
+     */
+    private static void appendColumns(StringBuilder sb, List<String> columns, String format, String separator) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(String.format(format, columns.get(i)));
+        }
+    }
+
     /**
      * Generates the query for delete an entity
      * @param entityClass
@@ -98,6 +249,50 @@ public class ModelUtilities {
         return result;
     }
 
+    /**
+     * Generates the query for deleting several entities of the same class at once. 
+     * Single keys are matched with <i>PK IN (?, ?...)</i> and compound keys with one 
+     * <i>(PK1=? AND PK2=?)</i> condition per entity joined with OR (row value constructors 
+     * are not supported by every database).
+     * @param entityClass
+     * @param ids number of entities deleted by the query
+     * @return delete query
+     */
+    public static String getQueryForDelete(Class entityClass, int ids) {
+        
+        String queryId = entityClass.getName() + "*" + ids;
+        String result = multiRowDeleteQueries.get(queryId);
+        
+        if (result == null) {
+            StringBuilder sb = new StringBuilder("DELETE FROM ");
+            sb.append(getTableName(entityClass));
+            sb.append(" WHERE ");
+            List<Field> pkFields = getEntityIdentifierFields(entityClass);
+            if (pkFields.size() == 1) {
+                sb.append(getColumnName(pkFields.get(0)));
+                sb.append(" IN (");
+                for (int i = 0; i < ids; i++) {
+                    sb.append(i == 0 ? "?" : ", ?");
+                }
+                sb.append(")");
+            } else {
+                // The basic where clause is " WHERE PK1=? AND PK2=?"
+                String condition = "(" + getWhereClause(entityClass).substring(7) + ")";
+                for (int i = 0; i < ids; i++) {
+                    if (i > 0) {
+                        sb.append(" OR ");
+                    }
+                    sb.append(condition);
+                }
+            }
+            result = sb.toString();
+            multiRowDeleteQueries.put(queryId, result);
+            logger.log(Level.FINE, "Multi-row DELETE query generated for " + ids + " entities of " + entityClass.getName());
+        }
+        
+        return result;
+    }
+
     /**
      * Generates the query for update an entity
      * @param entityClass
@@ -934,7 +1129,7 @@ public class ModelUtilities {
             } else {
                 result = persistentField.getAnnotation(AssociatedEntityList.class).removeAssociationType();
             }
-        } else if (PERSIST_MODE_SAVE == persistenceMode) {
+        } else if (PERSIST_MODE_SAVE == persistenceMode || PERSIST_MODE_SAVE_OR_UPDATE == persistenceMode) {
             PersistentAttribute att = persistentField.getAnnotation(PersistentAttribute.class);
             if (att != null) {
                 result = att.saveAssociationType();
@@ -9,13 +9,84 @@ public class LMLConstants {
 
     public static final String CONNECTION_SETTINGS_FILE_NAME = "lml-conn-settings";
     
+    public static final String CONNECTION_SETTINGS_PREFIX = "lml.connection.settings.";
+    
     public static final String CONNECTION_SETTINGS_DRIVER = "lml.connection.settings.db.driver";
     public static final String CONNECTION_SETTINGS_URL = "lml.connection.settings.db.url";
     public static final String CONNECTION_SETTINGS_USER = "lml.connection.settings.db.user";
     public static final String CONNECTION_SETTINGS_PASSWORD = "lml.connection.settings.db.password";
     public static final String CONNECTION_SETTINGS_POOL_SIZE = "lml.connection.settings.pool.size";
+    public static final String CONNECTION_SETTINGS_POOL_ACQUIRE_TIMEOUT = "lml.connection.settings.pool.acquire.timeout";
+    public static final String CONNECTION_SETTINGS_POOL_MIN_IDLE = "lml.connection.settings.pool.min.idle";
+    public static final String CONNECTION_SETTINGS_POOL_MAX_SIZE = "lml.connection.settings.pool.max.size";
+    public static final String CONNECTION_SETTINGS_POOL_IDLE_TIMEOUT = "lml.connection.settings.pool.idle.timeout";
+    public static final String CONNECTION_SETTINGS_POOL_MAX_LIFETIME = "lml.connection.settings.pool.max.lifetime";
+    public static final String CONNECTION_SETTINGS_POOL_HOUSEKEEPING_PERIOD = "lml.connection.settings.pool.housekeeping.period";
+    public static final String CONNECTION_SETTINGS_POOL_VALIDATION_INTERVAL = "lml.connection.settings.pool.validation.interval";
+    public static final String CONNECTION_SETTINGS_POOL_VALIDATION_TIMEOUT = "lml.connection.settings.pool.validation.timeout";
+    public static final String CONNECTION_SETTINGS_POOL_KEEPALIVE_INTERVAL = "lml.connection.settings.pool.keepalive.interval";
+    public static final String CONNECTION_SETTINGS_POOL_STATEMENT_CACHE_SIZE = "lml.connection.settings.pool.statement.cache.size";
+    public static final String CONNECTION_SETTINGS_POOL_LEAK_DETECTION_THRESHOLD = "lml.connection.settings.pool.leak.detection.threshold";
+    public static final String CONNECTION_SETTINGS_POOL_LEAK_RECLAIM_THRESHOLD = "lml.connection.settings.pool.leak.reclaim.threshold";
+    public static final String CONNECTION_SETTINGS_POOL_WARMUP_QUERY = "lml.connection.settings.pool.warmup.query";
+    public static final String CONNECTION_SETTINGS_POOL_WARMUP_PARALLELISM = "lml.connection.settings.pool.warmup.parallelism";
+    public static final String CONNECTION_SETTINGS_POOL_STARVATION_THRESHOLD = "lml.connection.settings.pool.starvation.threshold";
 
     public static final String CONNECTION_SETTING_DATASOURCE_JNDI = "lml.connection.settings.datasource.jndi";
+    public static final String CONNECTION_SETTINGS_REPLICAS = "lml.connection.settings.replicas";
+    public static final String CONNECTION_SETTINGS_ROUTE_PREFIX = "lml.connection.settings.route.";
+    public static final String CONNECTION_SETTINGS_ROUTING_STRATEGY = "lml.connection.settings.routing.strategy";
+    public static final String CONNECTION_SETTINGS_INTERCEPTORS = "lml.connection.settings.interceptors";
+    public static final String CONNECTION_SETTINGS_ACTION_TIMEOUT = "lml.connection.settings.action.timeout";
+    public static final String CONNECTION_SETTINGS_BULKHEAD_PREFIX = "lml.connection.settings.bulkhead.";
+    public static final String CONNECTION_SETTINGS_BULKHEAD_LANE_PREFIX = "lml.connection.settings.bulkhead.lane.";
+    public static final String BULKHEAD_LIMIT_SUFFIX = ".limit";
+    public static final String BULKHEAD_TIMEOUT_SUFFIX = ".timeout";
+    public static final String CONNECTION_SETTINGS_ASYNC_EXECUTOR = "lml.connection.settings.async.executor";
+    public static final String CONNECTION_SETTINGS_ASYNC_THREADS = "lml.connection.settings.async.threads";
+    public static final String CONNECTION_SETTINGS_ASYNC_QUEUE_SIZE = "lml.connection.settings.async.queue.size";
+    public static final String CONNECTION_SETTINGS_RETRY_MAX_ATTEMPTS = "lml.connection.settings.retry.max.attempts";
+    public static final String CONNECTION_SETTINGS_RETRY_BACKOFF = "lml.connection.settings.retry.backoff";
+    public static final String CONNECTION_SETTINGS_RETRY_MAX_BACKOFF = "lml.connection.settings.retry.max.backoff";
+    public static final String CONNECTION_SETTINGS_RETRY_VENDOR_CODES = "lml.connection.settings.retry.vendor.codes";
+    public static final String CONNECTION_SETTINGS_WRITE_BEHIND_QUEUE_SIZE = "lml.connection.settings.write.behind.queue.size";
+    public static final String CONNECTION_SETTINGS_WRITE_BEHIND_BATCH_SIZE = "lml.connection.settings.write.behind.batch.size";
+    public static final String CONNECTION_SETTINGS_WRITE_BEHIND_FLUSH_INTERVAL = "lml.connection.settings.write.behind.flush.interval";
+    public static final String CONNECTION_SETTINGS_WRITE_BEHIND_OFFER_TIMEOUT = "lml.connection.settings.write.behind.offer.timeout";
+    public static final String CONNECTION_SETTINGS_BATCH_SIZE = "lml.connection.settings.batch.size";
+    public static final String CONNECTION_SETTINGS_DIALECT = "lml.connection.settings.dialect";
+    public static final String CONNECTION_SETTINGS_MAX_PARAMETERS = "lml.connection.settings.max.parameters";
+    public static final String CONNECTION_SETTINGS_INSERT_DUPLICATE_CHECK = "lml.connection.settings.insert.duplicate.check";
+    
+    public static final String DEFAULT_CONNECTION_PROVIDER = "default";
+    
+    public static final String ASYNC_EXECUTOR_FIXED = "fixed";
+    public static final String ASYNC_EXECUTOR_VIRTUAL = "virtual";
+    public static final String INSERT_DUPLICATE_CHECK_READ = "read";
+    public static final String INSERT_DUPLICATE_CHECK_CONSTRAINT = "constraint";
+    
+    public static final long DEFAULT_POOL_ACQUIRE_TIMEOUT = 30000;
+    public static final long DEFAULT_POOL_IDLE_TIMEOUT = 600000;
+    public static final long DEFAULT_POOL_MAX_LIFETIME = 1800000;
+    public static final long DEFAULT_POOL_HOUSEKEEPING_PERIOD = 30000;
+    public static final long DEFAULT_POOL_VALIDATION_INTERVAL = 5000;
+    public static final int DEFAULT_POOL_VALIDATION_TIMEOUT = 5;
+    public static final long DEFAULT_POOL_KEEPALIVE_INTERVAL = 120000;
+    public static final int DEFAULT_POOL_STATEMENT_CACHE_SIZE = 50;
+    public static final int DEFAULT_POOL_WARMUP_PARALLELISM = 8;
+    public static final long DEFAULT_POOL_STARVATION_THRESHOLD = 1000;
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_RETRY_BACKOFF = 50;
+    public static final long DEFAULT_RETRY_MAX_BACKOFF = 2000;
+    // Deadlock and lock timeout codes of MySQL (1205, 1213), SQL Server (1205) and Oracle (60, 8177)
+    public static final String DEFAULT_RETRY_VENDOR_CODES = "1205,1213,60,8177";
+    public static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 500;
+    public static final long DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL = 1000;
+    public static final long DEFAULT_WRITE_BEHIND_OFFER_TIMEOUT = 5000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_MAX_PARAMETERS = 2000;
     
     public static final byte DETAIL_LEVEL_SHALLOW = 1;
     public static final byte DETAIL_LEVEL_DEEP = 2;
@@ -24,4 +95,5 @@ public class LMLConstants {
     public static final byte PERSIST_MODE_SAVE = 1;
     public static final byte PERSIST_MODE_UPDATE = 2;
     public static final byte PERSIST_MODE_DELETE = 3;
+    public static final byte PERSIST_MODE_SAVE_OR_UPDATE = 4;
 }
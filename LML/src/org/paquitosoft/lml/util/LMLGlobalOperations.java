@@ -2,6 +2,9 @@ package org.paquitosoft.lml.util;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,6 +38,92 @@ public class LMLGlobalOperations {
         return result;
     }
 
+    /**
+     * This method is used to gather an optional value from the connection settings file.
+     * 
+     * @param key
+     * @param defaultValue
+     * @return the value we're looking for or <i>defaultValue</i> if it has not been set.
+     */
+    public static String getConnectionSetting(String key, String defaultValue) {
+        
+        String result = defaultValue;
+        
+        try {
+            ResourceBundle rb = ResourceBundle.getBundle(LMLConstants.CONNECTION_SETTINGS_FILE_NAME);
+            String value = rb.getString(key).trim();
+            if (value.length() > 0) {
+                result = value;
+            }
+        } catch (MissingResourceException e) {
+            // Optional setting not present: we use the default value
+        }
+        
+        return result;
+    }
+
+    /**
+     * This method is used to gather an optional value for a named connection provider 
+     * (pool or data source) from the connection settings file.
+     * Named providers read their settings from keys with the name right after the prefix 
+     * (<i>lml.connection.settings.&lt;name&gt;.db.url</i>) and fall back to the default ones 
+     * (<i>lml.connection.settings.db.url</i>).
+     * 
+     * @param providerName
+     * @param key
+     * @param defaultValue
+     * @return the value we're looking for or <i>defaultValue</i> if it has not been set.
+     */
+    public static String getConnectionSetting(String providerName, String key, String defaultValue) {
+        
+        String result = getConnectionSetting(key, defaultValue);
+        
+        if (providerName != null && !LMLConstants.DEFAULT_CONNECTION_PROVIDER.equals(providerName)) {
+            result = getConnectionSetting(getConnectionSettingKey(providerName, key), result);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method builds the key of a setting for a named connection provider.
+     * 
+     * @param providerName
+     * @param key (one of the <i>lml.connection.settings.</i> keys)
+     * @return named key
+     */
+    public static String getConnectionSettingKey(String providerName, String key) {
+        
+        String result = key;
+        
+        if (providerName != null && !LMLConstants.DEFAULT_CONNECTION_PROVIDER.equals(providerName) && 
+                key.startsWith(LMLConstants.CONNECTION_SETTINGS_PREFIX)) {
+            result = LMLConstants.CONNECTION_SETTINGS_PREFIX + providerName + "." + 
+                    key.substring(LMLConstants.CONNECTION_SETTINGS_PREFIX.length());
+        }
+        
+        return result;
+    }
+    
+    /**
+     * This method is used to gather a comma separated list of names from the connection settings file.
+     * 
+     * @param key
+     * @return names (empty when the setting is not present)
+     */
+    public static String[] getConnectionSettingNames(String key) {
+        
+        String value = getConnectionSetting(key, "");
+        List<String> result = new ArrayList<String>();
+        for (String name : value.split(",")) {
+            if (name.trim().length() > 0) {
+                result.add(name.trim());
+            }
+        }
+        
+        return result.toArray(new String[result.size()]);
+    }
+
     /**
      * This method is used to get the type of a typed collection.
      * 
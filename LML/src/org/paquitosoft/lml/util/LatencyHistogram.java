@@ -0,0 +1,111 @@
+package org.paquitosoft.lml.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  Lock-free histogram of durations.
+ *  Durations are recorded in microseconds into power-of-two buckets, so percentiles
+ *  are approximated by the upper bound of the bucket they fall in (never more than
+ *  twice the real value). Recording a value never blocks.
+ *
+ * @author paquitosoft
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong(0);
+
+    private final AtomicLong sum = new AtomicLong(0);
+
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * This method records a duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long currentMax;
+        while (micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros)) {
+            // Somebody else updated it meanwhile: try again
+        }
+    }
+
+    /**
+     * This method returns how many durations have been recorded.
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * This method returns the mean of the recorded durations.
+     *
+     * @return mean in milliseconds
+     */
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : sum.get() / (n * 1000d);
+    }
+
+    /**
+     * This method returns the longest recorded duration.
+     *
+     * @return max in milliseconds
+     */
+    public double getMax() {
+        return max.get() / 1000d;
+    }
+
+    /**
+     * This method returns an approximation of the given percentile.
+     *
+     * @param percentile (between 0 and 100)
+     * @return percentile in milliseconds
+     */
+    public double getPercentile(double percentile) {
+
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(n * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                // Bucket i holds values below 2^i microseconds
+                return Math.min(getMax(), (1L << i) / 1000d);
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * This method discards every recorded duration.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+}